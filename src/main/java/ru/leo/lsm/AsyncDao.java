@@ -0,0 +1,138 @@
+package ru.leo.lsm;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Asynchronous reads and writes of dao. Operations are run by executor, by default every operation has
+ * its own virtual thread, so thread of page fault on cold part of SSTable is cheap.
+ * Count of operations, that are run on dao at the same time, is bounded, the others wait for permit.
+ * Dao is not closed by this class.
+ */
+public final class AsyncDao<D, E extends Entry<D>> implements Closeable {
+    public static final int DEFAULT_MAX_CONCURRENCY = 64;
+    private final Dao<D, E> dao;
+    private final Executor executor;
+    // Executor is shut down on close, only if it is created here
+    private final ExecutorService ownExecutor;
+    private final Semaphore permits;
+
+    public AsyncDao(Dao<D, E> dao) {
+        this(dao, Executors.newVirtualThreadPerTaskExecutor(), DEFAULT_MAX_CONCURRENCY, true);
+    }
+
+    /**
+     * Creates async dao over executor of caller, it is not shut down on close.
+     *
+     * @param maxConcurrency max count of operations, that are run on dao at the same time
+     */
+    public AsyncDao(Dao<D, E> dao, Executor executor, int maxConcurrency) {
+        this(dao, executor, maxConcurrency, false);
+    }
+
+    private AsyncDao(Dao<D, E> dao, Executor executor, int maxConcurrency, boolean ownsExecutor) {
+        if (maxConcurrency <= 0) {
+            throw new IllegalArgumentException("Expected 0 < maxConcurrency.");
+        }
+        this.dao = dao;
+        this.executor = executor;
+        this.ownExecutor = ownsExecutor ? (ExecutorService) executor : null;
+        this.permits = new Semaphore(maxConcurrency);
+    }
+
+    /**
+     * Returns entry by key, see {@link Dao#get(Object)}.
+     */
+    public CompletableFuture<E> get(D key) {
+        return submit(() -> dao.get(key));
+    }
+
+    /**
+     * Returns entries of keys, see {@link Dao#getAll(Collection)}.
+     */
+    public CompletableFuture<Map<D, E>> getAll(Collection<D> keys) {
+        return submit(() -> dao.getAll(keys));
+    }
+
+    /**
+     * Reads entries with keys between from (inclusive) and to (exclusive) in one batch.
+     * Range is read in memory, so it should be small.
+     */
+    public CompletableFuture<List<E>> get(D from, D to) {
+        return submit(() -> {
+            List<E> range = new ArrayList<>();
+            dao.get(from, to).forEachRemaining(range::add);
+            return range;
+        });
+    }
+
+    public CompletableFuture<Void> upsert(E entry) {
+        return submit(() -> {
+            dao.upsert(entry);
+            return null;
+        });
+    }
+
+    /**
+     * Applies batch atomically, see {@link Dao#write(WriteBatch)}.
+     */
+    public CompletableFuture<Void> write(WriteBatch<D> batch) {
+        return submit(() -> {
+            dao.write(batch);
+            return null;
+        });
+    }
+
+    /**
+     * Waits for submitted operations, if executor is created here.
+     */
+    @Override
+    public void close() {
+        if (ownExecutor != null) {
+            ownExecutor.close();
+        }
+    }
+
+    private <T> CompletableFuture<T> submit(DaoCall<T> call) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        try {
+            executor.execute(() -> run(call, future));
+        } catch (RejectedExecutionException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    private <T> void run(DaoCall<T> call, CompletableFuture<T> future) {
+        try {
+            permits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            future.completeExceptionally(e);
+            return;
+        }
+        try {
+            future.complete(call.call());
+        } catch (Throwable e) {
+            // Errors complete future too, else caller waits forever
+            future.completeExceptionally(e);
+        } finally {
+            permits.release();
+        }
+    }
+
+    @FunctionalInterface
+    private interface DaoCall<T> {
+        T call() throws IOException;
+    }
+}
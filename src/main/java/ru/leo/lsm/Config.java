@@ -4,5 +4,301 @@ import java.nio.file.Path;
 
 public record Config(
         Path basePath,
-        long flushThresholdBytes) {
+        long flushThresholdBytes,
+        CommitLogSync commitLogSync,
+        long commitLogSyncPeriodMillis,
+        int slowdownImmutableMemTables,
+        int maxImmutableMemTables,
+        MemTableType memTableType,
+        int offHeapArenaBytes,
+        int bloomBitsPerKey,
+        long blockCacheBytes,
+        BlockCacheEviction blockCacheEviction,
+        boolean zeroCopyReads,
+        PrefixExtractor prefixExtractor,
+        ChecksumVerification checksumVerification,
+        long scrubPeriodMillis,
+        int level0Tables,
+        long levelTableBytes,
+        int levelFanout,
+        CompactionStyle compactionStyle,
+        int minMergeWidth,
+        int maxMergeWidth,
+        double bucketRatio,
+        int subcompactions) {
+    public static final long DEFAULT_COMMIT_LOG_SYNC_PERIOD_MILLIS = 1000;
+    public static final int DEFAULT_SLOWDOWN_IMMUTABLE_MEM_TABLES = 2;
+    public static final int DEFAULT_MAX_IMMUTABLE_MEM_TABLES = 4;
+    public static final int DEFAULT_OFF_HEAP_ARENA_BYTES = 4 * 1024 * 1024;
+    public static final int DEFAULT_BLOOM_BITS_PER_KEY = 10;
+    public static final long DEFAULT_BLOCK_CACHE_BYTES = 16 * 1024 * 1024;
+    public static final int DEFAULT_LEVEL0_TABLES = 4;
+    public static final long DEFAULT_LEVEL_TABLE_BYTES = 4 * 1024 * 1024;
+    public static final int DEFAULT_LEVEL_FANOUT = 10;
+    public static final int DEFAULT_MIN_MERGE_WIDTH = 4;
+    public static final int DEFAULT_MAX_MERGE_WIDTH = 32;
+    public static final double DEFAULT_BUCKET_RATIO = 1.5;
+
+    public Config {
+        if (commitLogSync != CommitLogSync.SYNC && commitLogSyncPeriodMillis < 1) {
+            throw new IllegalArgumentException("Expected 1 <= commitLogSyncPeriodMillis in not sync modes.");
+        }
+        if (maxImmutableMemTables < 1 || slowdownImmutableMemTables > maxImmutableMemTables) {
+            throw new IllegalArgumentException("Expected 1 <= maxImmutableMemTables and "
+                + "slowdownImmutableMemTables <= maxImmutableMemTables.");
+        }
+        if (bloomBitsPerKey < 0) {
+            throw new IllegalArgumentException("Expected 0 <= bloomBitsPerKey.");
+        }
+        if (blockCacheBytes < 0) {
+            throw new IllegalArgumentException("Expected 0 <= blockCacheBytes.");
+        }
+        if (scrubPeriodMillis < 0) {
+            throw new IllegalArgumentException("Expected 0 <= scrubPeriodMillis.");
+        }
+        if (level0Tables < 1 || levelTableBytes < 1 || levelFanout < 2) {
+            throw new IllegalArgumentException(
+                "Expected 1 <= level0Tables, 1 <= levelTableBytes and 2 <= levelFanout.");
+        }
+        if (minMergeWidth < 2 || maxMergeWidth < minMergeWidth || !(bucketRatio > 1)) {
+            throw new IllegalArgumentException(
+                "Expected 2 <= minMergeWidth <= maxMergeWidth and 1 < bucketRatio.");
+        }
+        if (subcompactions < 1) {
+            throw new IllegalArgumentException("Expected 1 <= subcompactions.");
+        }
+    }
+
+    public Config(Path basePath, long flushThresholdBytes) {
+        this(basePath, flushThresholdBytes, CommitLogSync.PERIODIC, DEFAULT_COMMIT_LOG_SYNC_PERIOD_MILLIS,
+            DEFAULT_SLOWDOWN_IMMUTABLE_MEM_TABLES, DEFAULT_MAX_IMMUTABLE_MEM_TABLES,
+            MemTableType.SKIP_LIST, DEFAULT_OFF_HEAP_ARENA_BYTES, DEFAULT_BLOOM_BITS_PER_KEY,
+            DEFAULT_BLOCK_CACHE_BYTES, BlockCacheEviction.LRU, false, null, ChecksumVerification.FIRST_TOUCH, 0,
+            DEFAULT_LEVEL0_TABLES, DEFAULT_LEVEL_TABLE_BYTES, DEFAULT_LEVEL_FANOUT, CompactionStyle.MANUAL,
+            DEFAULT_MIN_MERGE_WIDTH, DEFAULT_MAX_MERGE_WIDTH, DEFAULT_BUCKET_RATIO, 1);
+    }
+
+    /**
+     * Sets durability of upserts, that are not flushed yet.
+     *
+     * @param commitLogSyncPeriodMillis period of background sync, used only by not {@link CommitLogSync#SYNC} modes
+     */
+    public Config withCommitLog(CommitLogSync commitLogSync, long commitLogSyncPeriodMillis) {
+        return new Config(basePath, flushThresholdBytes, commitLogSync, commitLogSyncPeriodMillis,
+            slowdownImmutableMemTables, maxImmutableMemTables, memTableType, offHeapArenaBytes, bloomBitsPerKey,
+            blockCacheBytes, blockCacheEviction, zeroCopyReads, prefixExtractor, checksumVerification,
+            scrubPeriodMillis, level0Tables, levelTableBytes, levelFanout, compactionStyle, minMergeWidth,
+            maxMergeWidth, bucketRatio, subcompactions);
+    }
+
+    /**
+     * Sets limits of memtables, that wait for flush.
+     *
+     * @param slowdownImmutableMemTables upserts are delayed from this count, delay grows with count
+     * @param maxImmutableMemTables      upserts are stopped, until one of memtables is flushed
+     */
+    public Config withWriteStalls(int slowdownImmutableMemTables, int maxImmutableMemTables) {
+        return new Config(basePath, flushThresholdBytes, commitLogSync, commitLogSyncPeriodMillis,
+            slowdownImmutableMemTables, maxImmutableMemTables, memTableType, offHeapArenaBytes, bloomBitsPerKey,
+            blockCacheBytes, blockCacheEviction, zeroCopyReads, prefixExtractor, checksumVerification,
+            scrubPeriodMillis, level0Tables, levelTableBytes, levelFanout, compactionStyle, minMergeWidth,
+            maxMergeWidth, bucketRatio, subcompactions);
+    }
+
+    /**
+     * Sets memtable implementation.
+     *
+     * @param offHeapArenaBytes size of one off heap arena, used only by {@link MemTableType#OFF_HEAP}
+     */
+    public Config withMemTable(MemTableType memTableType, int offHeapArenaBytes) {
+        return new Config(basePath, flushThresholdBytes, commitLogSync, commitLogSyncPeriodMillis,
+            slowdownImmutableMemTables, maxImmutableMemTables, memTableType, offHeapArenaBytes, bloomBitsPerKey,
+            blockCacheBytes, blockCacheEviction, zeroCopyReads, prefixExtractor, checksumVerification,
+            scrubPeriodMillis, level0Tables, levelTableBytes, levelFanout, compactionStyle, minMergeWidth,
+            maxMergeWidth, bucketRatio, subcompactions);
+    }
+
+    /**
+     * Sets size of bloom filters of new SSTables. Filters let point lookups skip tables without key.
+     *
+     * @param bloomBitsPerKey bits per key, false positive rate is about 1% for 10 bits, 0 disables filters
+     */
+    public Config withBloomFilter(int bloomBitsPerKey) {
+        return new Config(basePath, flushThresholdBytes, commitLogSync, commitLogSyncPeriodMillis,
+            slowdownImmutableMemTables, maxImmutableMemTables, memTableType, offHeapArenaBytes, bloomBitsPerKey,
+            blockCacheBytes, blockCacheEviction, zeroCopyReads, prefixExtractor, checksumVerification,
+            scrubPeriodMillis, level0Tables, levelTableBytes, levelFanout, compactionStyle, minMergeWidth,
+            maxMergeWidth, bucketRatio, subcompactions);
+    }
+
+    /**
+     * Sets cache of decoded blocks of SSTables, that is shared by all tables of dao.
+     *
+     * @param blockCacheBytes size limit of cache, 0 disables cache
+     */
+    public Config withBlockCache(long blockCacheBytes, BlockCacheEviction blockCacheEviction) {
+        return new Config(basePath, flushThresholdBytes, commitLogSync, commitLogSyncPeriodMillis,
+            slowdownImmutableMemTables, maxImmutableMemTables, memTableType, offHeapArenaBytes, bloomBitsPerKey,
+            blockCacheBytes, blockCacheEviction, zeroCopyReads, prefixExtractor, checksumVerification,
+            scrubPeriodMillis, level0Tables, levelTableBytes, levelFanout, compactionStyle, minMergeWidth,
+            maxMergeWidth, bucketRatio, subcompactions);
+    }
+
+    /**
+     * Sets read mode of SSTables. In zero copy mode values are read only views of mapped files, they are not
+     * copied in heap. Files of compacted tables are deleted, when no views of them are reachable.
+     */
+    public Config withZeroCopyReads(boolean zeroCopyReads) {
+        return new Config(basePath, flushThresholdBytes, commitLogSync, commitLogSyncPeriodMillis,
+            slowdownImmutableMemTables, maxImmutableMemTables, memTableType, offHeapArenaBytes, bloomBitsPerKey,
+            blockCacheBytes, blockCacheEviction, zeroCopyReads, prefixExtractor, checksumVerification,
+            scrubPeriodMillis, level0Tables, levelTableBytes, levelFanout, compactionStyle, minMergeWidth,
+            maxMergeWidth, bucketRatio, subcompactions);
+    }
+
+    /**
+     * Sets extractor of key prefixes for prefix bloom filters of new SSTables. Filters let prefix scans skip
+     * tables without prefix.
+     *
+     * @param prefixExtractor extractor, null disables filters
+     */
+    public Config withPrefixExtractor(PrefixExtractor prefixExtractor) {
+        return new Config(basePath, flushThresholdBytes, commitLogSync, commitLogSyncPeriodMillis,
+            slowdownImmutableMemTables, maxImmutableMemTables, memTableType, offHeapArenaBytes, bloomBitsPerKey,
+            blockCacheBytes, blockCacheEviction, zeroCopyReads, prefixExtractor, checksumVerification,
+            scrubPeriodMillis, level0Tables, levelTableBytes, levelFanout, compactionStyle, minMergeWidth,
+            maxMergeWidth, bucketRatio, subcompactions);
+    }
+
+    /**
+     * Sets verification of CRC32C checksums of SSTable blocks. Block with wrong checksum is not read,
+     * IllegalStateException is thrown instead.
+     *
+     * @param scrubPeriodMillis period of background verification of all blocks of all tables, 0 disables it
+     */
+    public Config withChecksums(ChecksumVerification checksumVerification, long scrubPeriodMillis) {
+        return new Config(basePath, flushThresholdBytes, commitLogSync, commitLogSyncPeriodMillis,
+            slowdownImmutableMemTables, maxImmutableMemTables, memTableType, offHeapArenaBytes, bloomBitsPerKey,
+            blockCacheBytes, blockCacheEviction, zeroCopyReads, prefixExtractor, checksumVerification,
+            scrubPeriodMillis, level0Tables, levelTableBytes, levelFanout, compactionStyle, minMergeWidth,
+            maxMergeWidth, bucketRatio, subcompactions);
+    }
+
+    /**
+     * Sets leveled layout of SSTables, tables are compacted automatically after flushes.
+     * Level 0 has flushed tables, that may overlap. Levels 1, 2, ... have tables of about levelTableBytes,
+     * that don't overlap, level n keeps up to levelTableBytes * levelFanout^n.
+     * Compaction merges level 0 in level 1, or one table of overfilled level with tables of the next level,
+     * that it overlaps.
+     *
+     * @param level0Tables count of tables in level 0, from which it is compacted
+     */
+    public Config withLeveledCompaction(int level0Tables, long levelTableBytes, int levelFanout) {
+        return new Config(basePath, flushThresholdBytes, commitLogSync, commitLogSyncPeriodMillis,
+            slowdownImmutableMemTables, maxImmutableMemTables, memTableType, offHeapArenaBytes, bloomBitsPerKey,
+            blockCacheBytes, blockCacheEviction, zeroCopyReads, prefixExtractor, checksumVerification,
+            scrubPeriodMillis, level0Tables, levelTableBytes, levelFanout, CompactionStyle.LEVELED, minMergeWidth,
+            maxMergeWidth, bucketRatio, subcompactions);
+    }
+
+    /**
+     * Sets size-tiered compaction, tables are compacted automatically after flushes.
+     * Flushed tables are kept in level 0 in order of freshness, neighbour tables of similar sizes form a bucket,
+     * a size of every table of bucket is at most bucketRatio times greater or less than their average.
+     * Bucket of at least minMergeWidth tables is merged in one table, the smallest bucket is merged first.
+     *
+     * @param maxMergeWidth limit of count of tables, that are merged at once
+     */
+    public Config withSizeTieredCompaction(int minMergeWidth, int maxMergeWidth, double bucketRatio) {
+        return new Config(basePath, flushThresholdBytes, commitLogSync, commitLogSyncPeriodMillis,
+            slowdownImmutableMemTables, maxImmutableMemTables, memTableType, offHeapArenaBytes, bloomBitsPerKey,
+            blockCacheBytes, blockCacheEviction, zeroCopyReads, prefixExtractor, checksumVerification,
+            scrubPeriodMillis, level0Tables, levelTableBytes, levelFanout, CompactionStyle.SIZE_TIERED,
+            minMergeWidth, maxMergeWidth, bucketRatio, subcompactions);
+    }
+
+    /**
+     * Sets count of threads of compaction. Compaction in levels 1, 2, ... splits keys in ranges
+     * by keys, that are sampled from indexes of merged tables, and merges every range in its own tables.
+     */
+    public Config withSubcompactions(int subcompactions) {
+        return new Config(basePath, flushThresholdBytes, commitLogSync, commitLogSyncPeriodMillis,
+            slowdownImmutableMemTables, maxImmutableMemTables, memTableType, offHeapArenaBytes, bloomBitsPerKey,
+            blockCacheBytes, blockCacheEviction, zeroCopyReads, prefixExtractor, checksumVerification,
+            scrubPeriodMillis, level0Tables, levelTableBytes, levelFanout, compactionStyle, minMergeWidth,
+            maxMergeWidth, bucketRatio, subcompactions);
+    }
+
+    public enum CommitLogSync {
+        /**
+         * Upsert returns when its record is forced to disk. Concurrent writers share one write and one force.
+         */
+        SYNC,
+        /**
+         * Records are written and forced to disk in background every commitLogSyncPeriodMillis.
+         */
+        PERIODIC,
+        /**
+         * Records are written in background every commitLogSyncPeriodMillis, but forced only on memtable switch.
+         */
+        ASYNC
+    }
+
+    public enum MemTableType {
+        /**
+         * Entrys are kept in heap in concurrent skip list.
+         */
+        SKIP_LIST,
+        /**
+         * Keys and values are copied in off heap arenas, skip list keeps only their addresses.
+         */
+        OFF_HEAP
+    }
+
+    public enum BlockCacheEviction {
+        /**
+         * Least recently used block is evicted.
+         */
+        LRU,
+        /**
+         * Approximation of LRU, hits are cheaper: they only mark block as referenced.
+         */
+        CLOCK,
+        /**
+         * LRU, but new block is cached only if it is read more frequently than block, that would be evicted.
+         * Resists to scans of cold data.
+         */
+        TINY_LFU
+    }
+
+    public enum CompactionStyle {
+        /**
+         * Tables are compacted only by {@link Dao#compact()}: all tables are merged in one table without tombstones.
+         */
+        MANUAL,
+        /**
+         * After flush level 0 is compacted, if it has level0Tables tables, and overfilled levels are compacted.
+         * {@link Dao#compact()} merges level 0 in level 1, then every overfilled level in the next one.
+         */
+        LEVELED,
+        /**
+         * After flush buckets of similar tables are merged. {@link Dao#compact()} merges all tables of level 0.
+         */
+        SIZE_TIERED
+    }
+
+    public enum ChecksumVerification {
+        /**
+         * Checksums are not verified on reads, only by scrubber.
+         */
+        OFF,
+        /**
+         * Block is verified, when it is read the first time, verified blocks are remembered by table.
+         */
+        FIRST_TOUCH,
+        /**
+         * Block is verified on every read from file. Blocks of cache are not verified again.
+         */
+        ALWAYS
+    }
 }
@@ -2,7 +2,13 @@ package ru.leo.lsm;
 
 import java.io.Closeable;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Spliterator;
 
 public interface Dao<D, E extends Entry<D>> extends Closeable {
 
@@ -31,6 +37,97 @@ public interface Dao<D, E extends Entry<D>> extends Closeable {
         return null;
     }
 
+    /**
+     * Returns entries by keys. Note: default implementation is far from optimal and keeps order of given keys.
+     * @param keys entries` keys, duplicates are allowed
+     * @return entries of keys, that are present, in order of given keys (implementations may order them by key)
+     */
+    default Map<D, E> getAll(Collection<D> keys) throws IOException {
+        Map<D, E> result = new LinkedHashMap<>();
+        for (D key : keys) {
+            E entry = get(key);
+            if (entry != null) {
+                result.put(key, entry);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns ordered iterator of keys between from (inclusive) and to (exclusive), values are not read.
+     * Note: default implementation reads entries.
+     * @param from lower bound of range (inclusive)
+     * @param to upper bound of range (exclusive)
+     * @return keys of entries [from;to)
+     */
+    default Iterator<D> keys(D from, D to) throws IOException {
+        Iterator<E> entries = get(from, to);
+        return new Iterator<>() {
+            @Override
+            public boolean hasNext() {
+                return entries.hasNext();
+            }
+
+            @Override
+            public D next() {
+                return entries.next().key();
+            }
+        };
+    }
+
+    /**
+     * Returns iterator of entries with keys between from (inclusive) and to (exclusive) in descending order.
+     * Note: default implementation reads the whole range.
+     * @param from lower bound of range (inclusive)
+     * @param to upper bound of range (exclusive)
+     * @return entries [from;to), the greatest key is the first
+     */
+    default Iterator<E> descending(D from, D to) throws IOException {
+        List<E> range = new ArrayList<>();
+        get(from, to).forEachRemaining(range::add);
+        return range.reversed().iterator();
+    }
+
+    /**
+     * Returns estimated count of entries with keys between from (inclusive) and to (exclusive).
+     * @param from lower bound of range (inclusive)
+     * @param to upper bound of range (exclusive)
+     * @return estimated count of entries [from;to)
+     */
+    long estimateCount(D from, D to) throws IOException;
+
+    /**
+     * Returns estimated size in bytes of entries with keys between from (inclusive) and to (exclusive).
+     * @param from lower bound of range (inclusive)
+     * @param to upper bound of range (exclusive)
+     * @return estimated size of entries [from;to)
+     */
+    long estimateBytes(D from, D to) throws IOException;
+
+    /**
+     * Splits range in partitions by keys, so they can be read in parallel.
+     * Note: default implementation gives the whole range as one partition.
+     * @param from lower bound of range (inclusive)
+     * @param to upper bound of range (exclusive)
+     * @param count wanted count of partitions, there may be less of them
+     * @return ordered iterators of partitions, partitions are ordered too
+     */
+    default List<Iterator<E>> partitions(D from, D to, int count) throws IOException {
+        return List.of(get(from, to));
+    }
+
+    /**
+     * Returns spliterator of range for parallel streams, it is split by {@link #partitions}.
+     * Stream of {@code StreamSupport.stream(spliterator, true)} reads partitions in fork join pool.
+     * @param from lower bound of range (inclusive)
+     * @param to upper bound of range (exclusive)
+     * @param count wanted count of partitions
+     * @return ordered spliterator of entries [from;to)
+     */
+    default Spliterator<E> spliterator(D from, D to, int count) throws IOException {
+        return new PartitionSpliterator<>(partitions(from, to, count));
+    }
+
     /**
      * Returns ordered iterator of all entries with keys from (inclusive).
      * @param from lower bound of range (inclusive)
@@ -57,12 +154,25 @@ public interface Dao<D, E extends Entry<D>> extends Closeable {
         return get(null, null);
     }
 
+    /**
+     * Returns ordered iterator of all entries with keys, that start with prefix.
+     * @param prefix prefix of keys
+     * @return entries with key, that starts with prefix
+     */
+    Iterator<E> prefix(D prefix) throws IOException;
+
     /**
      * Inserts of replaces entry.
      * @param entry element to upsert
      */
     void upsert(E entry);
 
+    /**
+     * Applies all upserts of batch atomically: readers see all of them or none of them.
+     * @param batch upserts to apply
+     */
+    void write(WriteBatch<D> batch) throws IOException;
+
     /**
      * Persists data (no-op by default).
      */
@@ -0,0 +1,61 @@
+package ru.leo.lsm;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+
+/**
+ * Spliterator over ordered partitions of range. It is split by partitions, so parallel stream merges
+ * every partition in its own task of fork join pool.
+ */
+final class PartitionSpliterator<E> implements Spliterator<E> {
+    private final List<Iterator<E>> partitions;
+    private int current;
+    private final int end;
+
+    PartitionSpliterator(List<Iterator<E>> partitions) {
+        this(partitions, 0, partitions.size());
+    }
+
+    private PartitionSpliterator(List<Iterator<E>> partitions, int current, int end) {
+        this.partitions = partitions;
+        this.current = current;
+        this.end = end;
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super E> action) {
+        while (current < end) {
+            Iterator<E> partition = partitions.get(current);
+            if (partition.hasNext()) {
+                action.accept(partition.next());
+                return true;
+            }
+            current++;
+        }
+        return false;
+    }
+
+    @Override
+    public Spliterator<E> trySplit() {
+        if (end - current < 2) {
+            return null;
+        }
+        int middle = (current + end) >>> 1;
+        Spliterator<E> prefix = new PartitionSpliterator<>(partitions, current, middle);
+        current = middle;
+        return prefix;
+    }
+
+    @Override
+    public long estimateSize() {
+        // Sizes of partitions are unknown
+        return Long.MAX_VALUE;
+    }
+
+    @Override
+    public int characteristics() {
+        return ORDERED | NONNULL;
+    }
+}
@@ -0,0 +1,64 @@
+package ru.leo.lsm;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Gives prefixes of keys for prefix bloom filters of SSTables.
+ * If prefix of some key is not null, every key, that starts with this key, should have the same prefix.
+ */
+public interface PrefixExtractor {
+
+    /**
+     * Name is saved with filters. Filters of other extractor are not used.
+     */
+    String name();
+
+    /**
+     * Gives prefix of key as view of key. Position of key is not changed.
+     *
+     * @return prefix or null if key is too short to have one
+     */
+    ByteBuffer prefix(ByteBuffer key);
+
+    /**
+     * Prefix is first length bytes of key.
+     */
+    static PrefixExtractor fixedLength(int length) {
+        if (length <= 0) {
+            throw new IllegalArgumentException("Expected 0 < length.");
+        }
+        return new PrefixExtractor() {
+            @Override
+            public String name() {
+                return "fixed:" + length;
+            }
+
+            @Override
+            public ByteBuffer prefix(ByteBuffer key) {
+                return key.remaining() < length ? null : key.slice(key.position(), length);
+            }
+        };
+    }
+
+    /**
+     * Prefix is key up to first delimiter inclusive, like artist in {@code artist\0album\0track} keys.
+     */
+    static PrefixExtractor upToDelimiter(byte delimiter) {
+        return new PrefixExtractor() {
+            @Override
+            public String name() {
+                return "delimiter:" + delimiter;
+            }
+
+            @Override
+            public ByteBuffer prefix(ByteBuffer key) {
+                for (int i = key.position(); i < key.limit(); i++) {
+                    if (key.get(i) == delimiter) {
+                        return key.slice(key.position(), i + 1 - key.position());
+                    }
+                }
+                return null;
+            }
+        };
+    }
+}
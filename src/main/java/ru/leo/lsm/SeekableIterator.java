@@ -0,0 +1,18 @@
+package ru.leo.lsm;
+
+import java.util.Iterator;
+
+/**
+ * Ordered iterator of entries, that can be moved forward to key without creation of new iterator,
+ * for paginated and skip scans.
+ */
+public interface SeekableIterator<D, E> extends Iterator<E> {
+
+    /**
+     * Moves iterator to the first entry with key greater or equal to given one.
+     * Iterator is never moved back: if its next entry is already greater or equal, nothing is changed.
+     * Bounds of range are kept.
+     * @param key lower bound of the rest of iteration (inclusive)
+     */
+    void seek(D key);
+}
@@ -0,0 +1,43 @@
+package ru.leo.lsm;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Group of upserts, that is applied atomically by {@link Dao#write(WriteBatch)}.
+ */
+public final class WriteBatch<D> {
+    private final List<Entry<D>> entries = new ArrayList<>();
+
+    public WriteBatch<D> put(D key, D value) {
+        return upsert(new BaseEntry<>(key, value));
+    }
+
+    public WriteBatch<D> delete(D key) {
+        return upsert(new BaseEntry<>(key, null));
+    }
+
+    /**
+     * Adds entry to batch. Entry with null value is tombstone.
+     */
+    public WriteBatch<D> upsert(Entry<D> entry) {
+        entries.add(entry);
+        return this;
+    }
+
+    /**
+     * Returns entries in order of adding. If key is added several times, the last entry wins.
+     */
+    public List<Entry<D>> entries() {
+        return Collections.unmodifiableList(entries);
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public boolean isEmpty() {
+        return entries.isEmpty();
+    }
+}
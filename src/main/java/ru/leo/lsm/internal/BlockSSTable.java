@@ -0,0 +1,870 @@
+package ru.leo.lsm.internal;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32C;
+import ru.leo.lsm.BaseEntry;
+import ru.leo.lsm.Config;
+import ru.leo.lsm.Entry;
+import ru.leo.lsm.PrefixExtractor;
+import ru.leo.lsm.SeekableIterator;
+import ru.leo.lsm.internal.cache.BlockCache;
+
+/**
+ * Block format of tables.
+ * Memory file is split in data blocks of about BLOCK_SIZE bytes. Block entry is varint length of key prefix,
+ * shared with previous entry, varint length of the rest of key, varint value length + 1 (0 for tombstone),
+ * the rest of key and value. Every RESTART_INTERVAL entry of block is restart point and keeps full key.
+ * Block ends with offsets of restart points in block and their count.
+ * Index file keeps last key, varint size and CRC32C checksum of every block and ends with footer:
+ * checksum of index before footer, entrys count, blocks count, max key length, format version, magic.
+ * Offset of block is sum of sizes of previous blocks.
+ * Memory file may be larger than 2 GB, it is mapped by segments of whole blocks.
+ */
+final class BlockSSTable extends SSTable {
+    static final int BLOCK_SIZE = 4 * 1024;
+    static final int RESTART_INTERVAL = 16;
+    // Segments are less than limit of one mapped buffer
+    static final long MAX_SEGMENT_BYTES = Integer.MAX_VALUE;
+    private static final int VERSION = 4;
+    // Legacy index ends with non negative entrys count, so it can't end with magic, which low int is negative
+    private static final long MAGIC = 0x4C534D53B5F1A7C9L;
+    private static final int FOOTER_SIZE = 2 * Long.BYTES + 4 * Integer.BYTES;
+    // Ids are unique for all tables of process, so cache is never confused by table with the same number
+    private static final AtomicLong TABLE_IDS = new AtomicLong();
+
+    private final long tableId = TABLE_IDS.getAndIncrement();
+    // Null if cache is disabled
+    private final BlockCache<DecodedBlock> blockCache;
+    private final boolean zeroCopyReads;
+    private final Config.ChecksumVerification checksumVerification;
+    private final int storagePartN;
+
+    private final long entrysC;
+    private final int blocksC;
+    private final int maxKeyLen;
+    // Sparse index: last key of block as position and length in indexBB, block handle
+    private final int[] lastKeyPositions;
+    private final int[] lastKeyLens;
+    private final long[] blockOffsets;
+    private final int[] blockSizes;
+    // Memory file is mapped by segments, block blockN is in segment blockSegments[blockN]
+    private final MappedByteBuffer[] memorySegments;
+    private final long[] segmentStarts;
+    private final int[] blockSegments;
+    private final long memorySize;
+    private final int[] blockChecksums;
+    // Blocks with checked checksums. Races only make block verified again.
+    private final boolean[] verifiedBlocks;
+    // Fence keys of table, null if table is empty. Last keys of blocks are fences of blocks.
+    private final ByteBuffer minKey;
+    private final ByteBuffer maxKey;
+
+    BlockSSTable(
+        MappedByteBuffer indexBB,
+        Path memoryPath,
+        BloomFilter bloomFilter,
+        BloomFilter prefixFilter,
+        BlockCache<DecodedBlock> blockCache,
+        boolean zeroCopyReads,
+        Config.ChecksumVerification checksumVerification,
+        long maxSegmentBytes,
+        int storagePartN
+    ) throws IOException {
+        super(indexBB, bloomFilter, prefixFilter, storagePartN);
+        this.blockCache = blockCache;
+        this.zeroCopyReads = zeroCopyReads;
+        this.checksumVerification = checksumVerification;
+        this.storagePartN = storagePartN;
+
+        int version = indexBB.getInt(indexBB.capacity() - Long.BYTES - Integer.BYTES);
+        if (version != VERSION) {
+            throw new IllegalStateException("Unknown SSTable version " + version + ".");
+        }
+        int footer = indexBB.capacity() - FOOTER_SIZE;
+        // Index is read whole now, so it is verified once
+        if (checksumVerification != Config.ChecksumVerification.OFF
+            && indexBB.getInt(footer) != checksum(indexBB, 0, footer)) {
+            throw new IllegalStateException("Checksum mismatch of index of SSTable " + storagePartN + ".");
+        }
+        footer += Integer.BYTES;
+        entrysC = indexBB.getLong(footer);
+        blocksC = indexBB.getInt(footer + Long.BYTES);
+        maxKeyLen = indexBB.getInt(footer + Long.BYTES + Integer.BYTES);
+
+        lastKeyPositions = new int[blocksC];
+        lastKeyLens = new int[blocksC];
+        blockOffsets = new long[blocksC];
+        blockSizes = new int[blocksC];
+        blockChecksums = new int[blocksC];
+        verifiedBlocks = checksumVerification == Config.ChecksumVerification.FIRST_TOUCH ? new boolean[blocksC] : null;
+        int ind = 0;
+        for (int i = 0; i < blocksC; i++) {
+            lastKeyLens[i] = VarInts.getVarInt(indexBB, ind);
+            ind += VarInts.sizeOf(lastKeyLens[i]);
+            lastKeyPositions[i] = ind;
+            ind += lastKeyLens[i];
+            blockOffsets[i] = i == 0 ? 0 : blockOffsets[i - 1] + blockSizes[i - 1];
+            blockSizes[i] = VarInts.getVarInt(indexBB, ind);
+            ind += VarInts.sizeOf(blockSizes[i]);
+            blockChecksums[i] = indexBB.getInt(ind);
+            ind += Integer.BYTES;
+        }
+
+        // Segments are split by blocks, so every block is read from one buffer
+        blockSegments = new int[blocksC];
+        long[] starts = new long[blocksC];
+        int segmentsC = 0;
+        for (int i = 0; i < blocksC; i++) {
+            if (segmentsC == 0 || blockOffsets[i] + blockSizes[i] - starts[segmentsC - 1] > maxSegmentBytes) {
+                starts[segmentsC++] = blockOffsets[i];
+            }
+            blockSegments[i] = segmentsC - 1;
+        }
+        segmentStarts = Arrays.copyOf(starts, segmentsC);
+        memorySize = blocksC == 0 ? 0 : blockOffsets[blocksC - 1] + blockSizes[blocksC - 1];
+        memorySegments = mapSegments(memoryPath, segmentStarts, memorySize);
+
+        if (blocksC == 0) {
+            minKey = null;
+            maxKey = null;
+        } else {
+            // The first entry of table is restart point, so it keeps full key
+            ByteBuffer segment = memorySegments[0];
+            int position = blockPosition(0) + 1;
+            int minKeyLen = VarInts.getVarInt(segment, position);
+            position += VarInts.sizeOf(minKeyLen);
+            position += VarInts.sizeOf(VarInts.getVarInt(segment, position));
+            minKey = segment.slice(position, minKeyLen);
+            maxKey = indexBB.slice(lastKeyPositions[blocksC - 1], lastKeyLens[blocksC - 1]);
+        }
+    }
+
+    @Override
+    MappedByteBuffer[] memorySegments() {
+        return memorySegments;
+    }
+
+    /**
+     * Gives position of block in its segment.
+     */
+    private int blockPosition(int blockN) {
+        return (int) (blockOffsets[blockN] - segmentStarts[blockSegments[blockN]]);
+    }
+
+    static boolean isBlockFormat(ByteBuffer indexBB) {
+        return indexBB.capacity() >= FOOTER_SIZE
+            && indexBB.getLong(indexBB.capacity() - Long.BYTES) == MAGIC;
+    }
+
+    @Override
+    ByteBuffer minKey() {
+        return minKey;
+    }
+
+    @Override
+    ByteBuffer maxKey() {
+        return maxKey;
+    }
+
+    @Override
+    public Entry<ByteBuffer> get(ByteBuffer key) {
+        if (blockCache != null) {
+            int blockN = findBlock(key, 0);
+            if (blockN == blocksC) {
+                return null;
+            }
+            DecodedBlock block = getDecodedBlock(blockN);
+            int position = block.getGreaterOrEqual(key, 0);
+            return position < block.size() && block.compareKeyAt(position, key) == 0 ? block.entry(position) : null;
+        }
+
+        BlockCursor cursor = new BlockCursor();
+        if (!cursor.seek(key) || cursor.compareTo(key) != 0) {
+            return null;
+        }
+        // Only found entry is read in heap
+        return cursor.entry();
+    }
+
+    @Override
+    public ForwardSearch forwardSearch() {
+        return new ForwardBlockSearch();
+    }
+
+    @Override
+    SeekableIterator<ByteBuffer, Entry<ByteBuffer>> iterator(ByteBuffer from, ByteBuffer to) {
+        return blockCache == null ? new BlockIterator(from, to) : new DecodedBlocksIterator(from, to);
+    }
+
+    @Override
+    SeekableIterator<ByteBuffer, Entry<ByteBuffer>> lazyIterator(ByteBuffer from, ByteBuffer to) {
+        return new BlockIterator(from, to);
+    }
+
+    @Override
+    Iterator<Entry<ByteBuffer>> descendingIterator(ByteBuffer from, ByteBuffer to) {
+        return new DescendingBlocksIterator(from, to);
+    }
+
+    static void save(
+        Path indexPath,
+        Path memoryPath,
+        Path bloomPath,
+        Path prefixBloomPath,
+        int bitsPerKey,
+        PrefixExtractor prefixExtractor,
+        long expectedEntrysC,
+        Iterator<Entry<ByteBuffer>> entrysToWrite
+    ) throws IOException {
+        Writer writer;
+        try (
+            FileChannel memChannel = (FileChannel) Files.newByteChannel(memoryPath,
+                EnumSet.of(StandardOpenOption.WRITE, StandardOpenOption.CREATE_NEW));
+            FileChannel indChannel = (FileChannel) Files.newByteChannel(indexPath,
+                EnumSet.of(StandardOpenOption.WRITE, StandardOpenOption.CREATE_NEW))
+        ) {
+            writer = new Writer(memChannel, bitsPerKey == 0 ? null : BloomFilter.create(expectedEntrysC, bitsPerKey),
+                bitsPerKey == 0 ? null : prefixExtractor);
+            while (entrysToWrite.hasNext()) {
+                writer.add(entrysToWrite.next());
+            }
+            writer.finish(indChannel);
+            // Table should be durable, before commit log of its entrys is released
+            memChannel.force(false);
+            indChannel.force(false);
+        }
+
+        if (writer.keyFilter != null) {
+            writer.keyFilter.save(bloomPath);
+        }
+        if (writer.prefixHashes != null) {
+            BloomFilter.create(writer.prefixHashes, writer.prefixesC, bitsPerKey)
+                .savePrefixFilter(prefixBloomPath, prefixExtractor.name());
+        }
+    }
+
+    /**
+     * Verifies checksums of all blocks, verified blocks are remembered like on first touch.
+     */
+    @Override
+    int scrub() {
+        int corruptedC = 0;
+        for (int blockN = 0; blockN < blocksC; blockN++) {
+            if (!hasValidChecksum(blockN)) {
+                corruptedC++;
+            } else if (verifiedBlocks != null) {
+                verifiedBlocks[blockN] = true;
+            }
+        }
+        return corruptedC;
+    }
+
+    /**
+     * Verifies block before read from file, if it is needed by verification mode.
+     */
+    private void verifyBlock(int blockN) {
+        if (checksumVerification == Config.ChecksumVerification.OFF
+            || verifiedBlocks != null && verifiedBlocks[blockN]) {
+            return;
+        }
+        if (!hasValidChecksum(blockN)) {
+            throw new IllegalStateException(
+                "Checksum mismatch of block " + blockN + " of SSTable " + storagePartN + ".");
+        }
+        if (verifiedBlocks != null) {
+            verifiedBlocks[blockN] = true;
+        }
+    }
+
+    private boolean hasValidChecksum(int blockN) {
+        ByteBuffer segment = memorySegments[blockSegments[blockN]];
+        return checksum(segment, blockPosition(blockN), blockSizes[blockN]) == blockChecksums[blockN];
+    }
+
+    /**
+     * CRC32C of bytes of buffer. It is intrinsic of JVM, which uses CRC32 instructions of processor.
+     */
+    private static int checksum(ByteBuffer buffer, int position, int length) {
+        CRC32C crc = new CRC32C();
+        crc.update(buffer.slice(position, length));
+        return (int) crc.getValue();
+    }
+
+    /**
+     * Finds block, where key should be.
+     *
+     * @param fromBlock number of block, search starts from, blocks before it should have less keys
+     * @return number of first block with last key greater or equal to given, blocksC if there is no such block
+     */
+    private int findBlock(ByteBuffer key, int fromBlock) {
+        int first = fromBlock;
+        int last = blocksC;
+        while (first < last) {
+            int blockN = (first + last) >>> 1;
+            if (compareKey(indexBB, lastKeyPositions[blockN], lastKeyLens[blockN], key) < 0) {
+                first = blockN + 1;
+            } else {
+                last = blockN;
+            }
+        }
+        return first;
+    }
+
+    /**
+     * Finds block like {@link #findBlock}, but by galloping from given block, so near block is found faster.
+     */
+    private int gallopBlock(ByteBuffer key, int fromBlock) {
+        return gallop(
+            blockN -> compareKey(indexBB, lastKeyPositions[blockN], lastKeyLens[blockN], key) < 0, fromBlock, blocksC);
+    }
+
+    private DecodedBlock getDecodedBlock(int blockN) {
+        return blockCache.get(tableId, blockOffsets[blockN], () -> decodeBlock(blockN));
+    }
+
+    private DecodedBlock decodeBlock(int blockN) {
+        List<byte[]> keys = new ArrayList<>();
+        List<ByteBuffer> values = new ArrayList<>();
+        BlockCursor cursor = new BlockCursor();
+        cursor.moveToBlock(blockN);
+        while (cursor.hasNextInBlock()) {
+            cursor.advance();
+            keys.add(cursor.keyBytes());
+            ByteBuffer value = cursor.value();
+            values.add(value == null ? null : value.asReadOnlyBuffer());
+        }
+        return new DecodedBlock(keys.toArray(new byte[0][]), values.toArray(new ByteBuffer[0]));
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private static ByteBuffer ensureRemaining(ByteBuffer buffer, int bytes) {
+        if (buffer.remaining() >= bytes) {
+            return buffer;
+        }
+        ByteBuffer grown = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + bytes));
+        return grown.put(buffer.flip());
+    }
+
+    /**
+     * Position of reader in table. Key of current entry is restored in heap buffer, value is left in file.
+     */
+    private final class BlockCursor {
+        private final byte[] key = new byte[maxKeyLen];
+        private final ByteBuffer keyBB = ByteBuffer.wrap(key);
+        private int keyLen;
+        private int valuePosition;
+        // LEN_FOR_NULL for tombstone
+        private int valueLen;
+
+        private int blockN = -1;
+        // Segment of current block, positions are positions in it
+        private ByteBuffer segment;
+        private int blockStart;
+        private int restartsStart;
+        private int restartsC;
+        private int nextPosition;
+
+        /**
+         * Moves to first entry with key greater or equal to given.
+         *
+         * @return false if there is no such entry
+         */
+        boolean seek(ByteBuffer target) {
+            return seekInBlock(findBlock(target, 0), target);
+        }
+
+        /**
+         * Moves to first entry with key greater or equal to given, when it is known to be in given block.
+         *
+         * @return false if there is no such entry
+         */
+        boolean seekInBlock(int targetBlockN, ByteBuffer target) {
+            if (!moveToBlock(targetBlockN)) {
+                return false;
+            }
+
+            // Last restart point with key less or equal to target, entrys before it are less than target
+            int first = 0;
+            int last = restartsC - 1;
+            while (first < last) {
+                int restartN = (first + last + 1) >>> 1;
+                if (compareRestartKey(restartN, target) <= 0) {
+                    first = restartN;
+                } else {
+                    last = restartN - 1;
+                }
+            }
+            nextPosition = restartPosition(first);
+
+            // Last key of block is greater or equal to target, so entry is found in this block
+            while (advance()) {
+                if (compareTo(target) >= 0) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Moves to next entry.
+         *
+         * @return false if there are no more entrys
+         */
+        boolean advance() {
+            while (nextPosition >= restartsStart) {
+                if (!moveToBlock(blockN + 1)) {
+                    return false;
+                }
+            }
+
+            int position = nextPosition;
+            int shared = VarInts.getVarInt(segment, position);
+            position += VarInts.sizeOf(shared);
+            int unshared = VarInts.getVarInt(segment, position);
+            position += VarInts.sizeOf(unshared);
+            int valueLenCode = VarInts.getVarInt(segment, position);
+            position += VarInts.sizeOf(valueLenCode);
+
+            // Shared prefix is left from previous key
+            segment.get(position, key, shared, unshared);
+            keyLen = shared + unshared;
+            valuePosition = position + unshared;
+            valueLen = valueLenCode - 1;
+            nextPosition = valuePosition + Math.max(valueLen, 0);
+            return true;
+        }
+
+        int compareTo(ByteBuffer other) {
+            return compareKey(keyBB, 0, keyLen, other);
+        }
+
+        boolean hasNextInBlock() {
+            return nextPosition < restartsStart;
+        }
+
+        Entry<ByteBuffer> entry() {
+            return new BaseEntry<>(ByteBuffer.wrap(keyBytes()), value());
+        }
+
+        Entry<ByteBuffer> lazyEntry() {
+            return new LazyEntry(ByteBuffer.wrap(keyBytes()), segment, valuePosition, valueLen, zeroCopyReads);
+        }
+
+        byte[] keyBytes() {
+            return Arrays.copyOf(key, keyLen);
+        }
+
+        /**
+         * Gives value as read only view of memory file in zero copy mode, as copy in heap otherwise.
+         * Keys are always restored in heap, because of prefix compression.
+         */
+        ByteBuffer value() {
+            return valueLen == LEN_FOR_NULL ? null : readBuffer(segment, valuePosition, valueLen, zeroCopyReads);
+        }
+
+        boolean moveToBlock(int newBlockN) {
+            blockN = newBlockN;
+            if (blockN >= blocksC) {
+                return false;
+            }
+
+            verifyBlock(blockN);
+            segment = memorySegments[blockSegments[blockN]];
+            blockStart = blockPosition(blockN);
+            int blockEnd = blockStart + blockSizes[blockN];
+            restartsC = segment.getInt(blockEnd - Integer.BYTES);
+            restartsStart = blockEnd - Integer.BYTES - restartsC * Integer.BYTES;
+            nextPosition = blockStart;
+            return true;
+        }
+
+        private int restartPosition(int restartN) {
+            return blockStart + segment.getInt(restartsStart + restartN * Integer.BYTES);
+        }
+
+        // Key of restart point is compared in file, its shared length is 0
+        private int compareRestartKey(int restartN, ByteBuffer target) {
+            int position = restartPosition(restartN) + 1;
+            int keyLength = VarInts.getVarInt(segment, position);
+            position += VarInts.sizeOf(keyLength);
+            position += VarInts.sizeOf(VarInts.getVarInt(segment, position));
+            return compareKey(segment, position, keyLength, target);
+        }
+    }
+
+    private final class BlockIterator implements SeekableIterator<ByteBuffer, Entry<ByteBuffer>> {
+        private final BlockCursor cursor = new BlockCursor();
+        private final ByteBuffer to;
+        private boolean hasEntry;
+
+        BlockIterator(ByteBuffer from, ByteBuffer to) {
+            this.to = to;
+            // New cursor is before the first block, so advance moves it to the first entry
+            hasEntry = from == null ? cursor.advance() : cursor.seek(from);
+        }
+
+        @Override
+        public boolean hasNext() {
+            return hasEntry && (to == null || cursor.compareTo(to) < 0);
+        }
+
+        @Override
+        public Entry<ByteBuffer> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+
+            // Cursor is moved, so value is read by position in file, if it is needed
+            Entry<ByteBuffer> current = cursor.lazyEntry();
+            hasEntry = cursor.advance();
+            return current;
+        }
+
+        @Override
+        public void seek(ByteBuffer key) {
+            if (hasEntry && cursor.compareTo(key) < 0) {
+                hasEntry = cursor.seekInBlock(gallopBlock(key, cursor.blockN), key);
+            }
+        }
+    }
+
+    /**
+     * Search of sorted keys: blocks and entrys before previous key are not searched again,
+     * decoded block is reused by keys of the same block.
+     */
+    private final class ForwardBlockSearch implements ForwardSearch {
+        private final BlockCursor cursor = new BlockCursor();
+        private int blockN;
+        // Decoded block blockN, null if it is not got yet or cache is disabled
+        private DecodedBlock block;
+        private int position;
+
+        @Override
+        public Entry<ByteBuffer> get(ByteBuffer key) {
+            int keyBlockN = findBlock(key, blockN);
+            if (keyBlockN == blocksC) {
+                blockN = blocksC;
+                return null;
+            }
+
+            if (blockCache == null) {
+                blockN = keyBlockN;
+                return cursor.seekInBlock(blockN, key) && cursor.compareTo(key) == 0 ? cursor.entry() : null;
+            }
+
+            if (block == null || keyBlockN != blockN) {
+                blockN = keyBlockN;
+                block = getDecodedBlock(blockN);
+                position = 0;
+            }
+            position = block.getGreaterOrEqual(key, position);
+            return position < block.size() && block.compareKeyAt(position, key) == 0 ? block.entry(position) : null;
+        }
+    }
+
+    @Override
+    List<ByteBuffer> sampleKeys(ByteBuffer from, ByteBuffer to, int maxSamples) {
+        // Last keys of blocks are read from sparse index, blocks [first, last) have them in range
+        int first = from == null ? 0 : findBlock(from, 0);
+        int last = to == null ? blocksC : findBlock(to, first);
+        int step = Math.max(1, (last - first + maxSamples - 1) / maxSamples);
+        List<ByteBuffer> samples = new ArrayList<>();
+        for (int blockN = first; blockN < last; blockN += step) {
+            samples.add(indexBB.slice(lastKeyPositions[blockN], lastKeyLens[blockN]));
+        }
+        return samples;
+    }
+
+    /**
+     * Index is sparse, so count is got from size of range and mean size of entry in table.
+     */
+    @Override
+    long estimateCount(ByteBuffer from, ByteBuffer to) {
+        long bytes = estimateBytes(from, to);
+        // Product of counts of large table overflows long
+        return bytes == 0 ? 0 : Math.max(1, (long) ((double) entrysC * bytes / memorySize));
+    }
+
+    /**
+     * Size of blocks, that have keys of range. It is more than exact one by parts of the first and the last blocks,
+     * that are out of range.
+     */
+    @Override
+    long estimateBytes(ByteBuffer from, ByteBuffer to) {
+        int first = from == null ? 0 : findBlock(from, 0);
+        if (first == blocksC) {
+            return 0;
+        }
+        int last = to == null ? blocksC - 1 : Math.min(findBlock(to, first), blocksC - 1);
+        return blockOffsets[last] + blockSizes[last] - blockOffsets[first];
+    }
+
+    /**
+     * Entrys of block can be restored only from restart points forward, so every block is decoded whole
+     * and walked backwards. Blocks are walked by sparse index from the end.
+     */
+    private final class DescendingBlocksIterator implements Iterator<Entry<ByteBuffer>> {
+        private final ByteBuffer from;
+        private int blockN;
+        private DecodedBlock block;
+        private int position;
+
+        DescendingBlocksIterator(ByteBuffer from, ByteBuffer to) {
+            this.from = from;
+            // Block of to may have only keys greater or equal to it, then the previous block is the first
+            blockN = to == null ? blocksC - 1 : Math.min(findBlock(to, 0), blocksC - 1);
+            if (blockN >= 0) {
+                block = blockOf(blockN);
+                position = (to == null ? block.size() : block.getGreaterOrEqual(to, 0)) - 1;
+                skipEmptyBlocks();
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return block != null && (from == null || block.compareKeyAt(position, from) >= 0);
+        }
+
+        @Override
+        public Entry<ByteBuffer> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+
+            Entry<ByteBuffer> current = block.entry(position);
+            position--;
+            skipEmptyBlocks();
+            return current;
+        }
+
+        private void skipEmptyBlocks() {
+            while (position < 0) {
+                blockN--;
+                if (blockN < 0) {
+                    block = null;
+                    return;
+                }
+                block = blockOf(blockN);
+                position = block.size() - 1;
+            }
+        }
+
+        private DecodedBlock blockOf(int n) {
+            return blockCache == null ? decodeBlock(n) : getDecodedBlock(n);
+        }
+    }
+
+    private final class DecodedBlocksIterator implements SeekableIterator<ByteBuffer, Entry<ByteBuffer>> {
+        private final ByteBuffer to;
+        private int blockN;
+        private DecodedBlock block;
+        private int position;
+
+        DecodedBlocksIterator(ByteBuffer from, ByteBuffer to) {
+            this.to = to;
+            blockN = from == null ? 0 : findBlock(from, 0);
+            if (blockN < blocksC) {
+                block = getDecodedBlock(blockN);
+                position = from == null ? 0 : block.getGreaterOrEqual(from, 0);
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return block != null && (to == null || block.compareKeyAt(position, to) < 0);
+        }
+
+        @Override
+        public Entry<ByteBuffer> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+
+            Entry<ByteBuffer> current = block.entry(position);
+            position++;
+            if (position == block.size()) {
+                blockN++;
+                block = blockN < blocksC ? getDecodedBlock(blockN) : null;
+                position = 0;
+            }
+            return current;
+        }
+
+        @Override
+        public void seek(ByteBuffer key) {
+            if (block == null || block.compareKeyAt(position, key) >= 0) {
+                return;
+            }
+
+            int keyBlockN = gallopBlock(key, blockN);
+            if (keyBlockN != blockN) {
+                blockN = keyBlockN;
+                if (blockN == blocksC) {
+                    block = null;
+                    return;
+                }
+                block = getDecodedBlock(blockN);
+                position = 0;
+            }
+            // Last key of block is greater or equal to key, so position is in block
+            position = block.getGreaterOrEqual(key, position);
+        }
+    }
+
+    private static final class Writer {
+        private static final int DEFAULT_ALLOC_SIZE = 2048;
+
+        private final FileChannel memChannel;
+        private ByteBuffer block = ByteBuffer.allocate(2 * BLOCK_SIZE);
+        private ByteBuffer index = ByteBuffer.allocate(DEFAULT_ALLOC_SIZE);
+        private int[] restarts = new int[BLOCK_SIZE / RESTART_INTERVAL];
+        private int restartsC;
+        private int blockEntrysC;
+        private byte[] lastKey = new byte[DEFAULT_ALLOC_SIZE];
+        private int lastKeyLen;
+        private int blocksC;
+        private int maxKeyLen;
+        private long entrysC;
+        // Filter is sized for expected count of entrys and filled on add, null if it is not needed
+        private final BloomFilter keyFilter;
+        // Hashes of different prefixes for prefix filter, null if it is not needed
+        private final PrefixExtractor prefixExtractor;
+        private long[] prefixHashes;
+        private int prefixesC;
+
+        Writer(FileChannel memChannel, BloomFilter keyFilter, PrefixExtractor prefixExtractor) {
+            this.memChannel = memChannel;
+            this.keyFilter = keyFilter;
+            this.prefixExtractor = prefixExtractor;
+            this.prefixHashes = prefixExtractor == null ? null : new long[DEFAULT_ALLOC_SIZE];
+        }
+
+        void add(Entry<ByteBuffer> entry) throws IOException {
+            ByteBuffer key = entry.key();
+            ByteBuffer value = entry.value();
+            int keyLen = key.remaining();
+
+            int shared = 0;
+            if (blockEntrysC % RESTART_INTERVAL == 0) {
+                if (restartsC == restarts.length) {
+                    restarts = Arrays.copyOf(restarts, restarts.length * 2);
+                }
+                restarts[restartsC++] = block.position();
+            } else {
+                shared = commonPrefix(key);
+            }
+
+            int valueLen = value == null ? 0 : value.remaining();
+            block = ensureRemaining(block, 3 * VarInts.MAX_VAR_INT_BYTES + keyLen - shared + valueLen);
+            VarInts.putVarLong(block, shared);
+            VarInts.putVarLong(block, keyLen - shared);
+            VarInts.putVarLong(block, value == null ? 0 : valueLen + 1);
+            block.put(key.slice(key.position() + shared, keyLen - shared));
+            if (value != null) {
+                block.put(value.duplicate());
+            }
+
+            if (keyLen > lastKey.length) {
+                lastKey = new byte[Math.max(keyLen, lastKey.length * 2)];
+            }
+            key.get(key.position(), lastKey, 0, keyLen);
+            lastKeyLen = keyLen;
+            maxKeyLen = Math.max(maxKeyLen, keyLen);
+
+            if (keyFilter != null) {
+                keyFilter.add(BloomFilter.hash(key));
+            }
+            if (prefixHashes != null) {
+                addPrefix(key);
+            }
+            blockEntrysC++;
+            entrysC++;
+
+            if (block.position() >= BLOCK_SIZE) {
+                finishBlock();
+            }
+        }
+
+        private void addPrefix(ByteBuffer key) {
+            ByteBuffer prefix = prefixExtractor.prefix(key);
+            if (prefix == null) {
+                return;
+            }
+            // Keys are sorted, so keys with the same prefix are neighbours
+            long hash = BloomFilter.hash(prefix);
+            if (prefixesC != 0 && prefixHashes[prefixesC - 1] == hash) {
+                return;
+            }
+            if (prefixesC == prefixHashes.length) {
+                prefixHashes = Arrays.copyOf(prefixHashes, prefixHashes.length * 2);
+            }
+            prefixHashes[prefixesC++] = hash;
+        }
+
+        void finish(FileChannel indChannel) throws IOException {
+            if (blockEntrysC != 0) {
+                finishBlock();
+            }
+
+            int indexChecksum = checksum(index, 0, index.position());
+            index = ensureRemaining(index, FOOTER_SIZE);
+            index.putInt(indexChecksum);
+            index.putLong(entrysC);
+            index.putInt(blocksC);
+            index.putInt(maxKeyLen);
+            index.putInt(VERSION);
+            index.putLong(MAGIC);
+            writeFully(indChannel, index.flip());
+        }
+
+        private void finishBlock() throws IOException {
+            block = ensureRemaining(block, (restartsC + 1) * Integer.BYTES);
+            for (int i = 0; i < restartsC; i++) {
+                block.putInt(restarts[i]);
+            }
+            block.putInt(restartsC);
+            int blockSize = block.position();
+            int blockChecksum = checksum(block, 0, blockSize);
+            writeFully(memChannel, block.flip());
+
+            index = ensureRemaining(index, 2 * VarInts.MAX_VAR_INT_BYTES + lastKeyLen + Integer.BYTES);
+            VarInts.putVarLong(index, lastKeyLen);
+            index.put(lastKey, 0, lastKeyLen);
+            VarInts.putVarLong(index, blockSize);
+            index.putInt(blockChecksum);
+
+            blocksC++;
+            block.clear();
+            restartsC = 0;
+            blockEntrysC = 0;
+        }
+
+        private int commonPrefix(ByteBuffer key) {
+            int commonLen = Math.min(lastKeyLen, key.remaining());
+            int keyFrom = key.position();
+            int i = 0;
+            while (i < commonLen && lastKey[i] == key.get(keyFrom + i)) {
+                i++;
+            }
+            return i;
+        }
+    }
+}
@@ -0,0 +1,195 @@
+package ru.leo.lsm.internal;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.EnumSet;
+
+/**
+ * Bloom filter of SSTable keys. Bit positions are got by double hashing of one 64 bit key hash.
+ * File format: count of hash functions, bits as longs. File of prefix filter starts with name of extractor.
+ */
+public final class BloomFilter {
+    private static final int MAX_HASH_FUNCTIONS = 30;
+    // Longs of bits are written and read by chunks, so filter of any size doesn't need buffer of its size
+    private static final int CHUNK_LONGS = 8 * 1024;
+    private static final int MAX_BITS_LONGS = Integer.MAX_VALUE - 8;
+    private static final long SEED = 0x9E3779B97F4A7C15L;
+    private static final long MULTIPLIER = 0xC6A4A7935BD1E995L;
+
+    private final int hashFunctionsC;
+    private final long[] bits;
+    private final long bitsC;
+
+    private BloomFilter(int hashFunctionsC, long[] bits) {
+        this.hashFunctionsC = hashFunctionsC;
+        this.bits = bits;
+        this.bitsC = (long) bits.length * Long.BYTES * 8;
+    }
+
+    /**
+     * Builds filter of keys with given hashes.
+     *
+     * @param keyHashes  hashes of keys, got by {@link #hash(ByteBuffer)}, only first keysC are used
+     * @param bitsPerKey bits of filter per one key, false positive rate is about 1% for 10 bits
+     */
+    public static BloomFilter create(long[] keyHashes, int keysC, int bitsPerKey) {
+        BloomFilter filter = create(keysC, bitsPerKey);
+        for (int i = 0; i < keysC; i++) {
+            filter.add(keyHashes[i]);
+        }
+        return filter;
+    }
+
+    /**
+     * Creates empty filter for given count of keys, keys are added by {@link #add(long)}.
+     * More keys may be added, false positive rate grows then.
+     */
+    public static BloomFilter create(long keysC, int bitsPerKey) {
+        long bitsC = Math.max(keysC * bitsPerKey, Long.SIZE);
+        int hashFunctionsC = (int) Math.max(1, Math.min(MAX_HASH_FUNCTIONS, Math.round(bitsPerKey * Math.log(2))));
+        return new BloomFilter(hashFunctionsC, new long[(int) Math.min((bitsC + Long.SIZE - 1) / Long.SIZE,
+            MAX_BITS_LONGS)]);
+    }
+
+    public static BloomFilter load(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return read(channel, channel.size());
+        }
+    }
+
+    /**
+     * Loads filter of key prefixes.
+     *
+     * @param extractorName name of current prefix extractor
+     * @return filter or null if it was built by other extractor
+     */
+    public static BloomFilter loadPrefixFilter(Path path, String extractorName) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            byte[] name = new byte[readFully(channel, ByteBuffer.allocate(Integer.BYTES)).getInt()];
+            readFully(channel, ByteBuffer.wrap(name));
+            if (!extractorName.equals(new String(name, StandardCharsets.UTF_8))) {
+                return null;
+            }
+            return read(channel, channel.size() - Integer.BYTES - name.length);
+        }
+    }
+
+    public void save(Path path) throws IOException {
+        writeFile(path, ByteBuffer.allocate(Integer.BYTES).putInt(hashFunctionsC).flip());
+    }
+
+    /**
+     * Saves filter of key prefixes with name of extractor in the beginning of file.
+     */
+    public void savePrefixFilter(Path path, String extractorName) throws IOException {
+        byte[] name = extractorName.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer header = ByteBuffer.allocate(2 * Integer.BYTES + name.length);
+        writeFile(path, header.putInt(name.length).put(name).putInt(hashFunctionsC).flip());
+    }
+
+    // Reads count of hash functions and bits, that take given size of file from position of channel
+    private static BloomFilter read(FileChannel channel, long size) throws IOException {
+        int hashFunctionsC = readFully(channel, ByteBuffer.allocate(Integer.BYTES)).getInt();
+        long[] bits = new long[(int) ((size - Integer.BYTES) / Long.BYTES)];
+        ByteBuffer chunk = ByteBuffer.allocate(CHUNK_LONGS * Long.BYTES);
+        for (int from = 0; from < bits.length; from += CHUNK_LONGS) {
+            int longsC = Math.min(CHUNK_LONGS, bits.length - from);
+            readFully(channel, chunk.clear().limit(longsC * Long.BYTES)).asLongBuffer().get(bits, from, longsC);
+        }
+        return new BloomFilter(hashFunctionsC, bits);
+    }
+
+    private static ByteBuffer readFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                throw new IOException("Unexpected end of bloom filter file.");
+            }
+        }
+        return buffer.flip();
+    }
+
+    private void writeFile(Path path, ByteBuffer header) throws IOException {
+        try (
+            FileChannel channel = (FileChannel) Files.newByteChannel(path,
+                EnumSet.of(StandardOpenOption.WRITE, StandardOpenOption.CREATE_NEW))
+        ) {
+            writeFully(channel, header);
+            ByteBuffer chunk = ByteBuffer.allocate(CHUNK_LONGS * Long.BYTES);
+            for (int from = 0; from < bits.length; from += CHUNK_LONGS) {
+                int longsC = Math.min(CHUNK_LONGS, bits.length - from);
+                chunk.clear().asLongBuffer().put(bits, from, longsC);
+                writeFully(channel, chunk.limit(longsC * Long.BYTES));
+            }
+            // Torn filter would hide keys of table
+            channel.force(false);
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    /**
+     * Checks key.
+     *
+     * @return false if key is surely absent, true if key may be present
+     */
+    public boolean mightContain(ByteBuffer key) {
+        long hash = hash(key);
+        long delta = (hash >>> 32) | 1;
+        for (int i = 0; i < hashFunctionsC; i++) {
+            long bit = (hash & Long.MAX_VALUE) % bitsC;
+            if ((bits[(int) (bit >>> 6)] & (1L << bit)) == 0) {
+                return false;
+            }
+            hash += delta;
+        }
+        return true;
+    }
+
+    /**
+     * Hashes key bytes from position to limit. Key buffer position is not changed.
+     */
+    public static long hash(ByteBuffer key) {
+        long hash = SEED ^ (key.remaining() * MULTIPLIER);
+        int position = key.position();
+        int limit = key.limit();
+        for (; position + Long.BYTES <= limit; position += Long.BYTES) {
+            hash = (hash ^ mix(key.getLong(position))) * MULTIPLIER;
+        }
+        for (; position < limit; position++) {
+            hash = (hash ^ (key.get(position) & 0xFF)) * MULTIPLIER;
+        }
+        return mix(hash);
+    }
+
+    /**
+     * Adds key by its hash, got by {@link #hash(ByteBuffer)}.
+     */
+    public void add(long hash) {
+        long delta = (hash >>> 32) | 1;
+        for (int i = 0; i < hashFunctionsC; i++) {
+            long bit = (hash & Long.MAX_VALUE) % bitsC;
+            bits[(int) (bit >>> 6)] |= 1L << bit;
+            hash += delta;
+        }
+    }
+
+    // Finalizer of murmur3, spreads every bit of value to all bits of result
+    private static long mix(long value) {
+        long mixed = value;
+        mixed ^= mixed >>> 33;
+        mixed *= 0xFF51AFD7ED558CCDL;
+        mixed ^= mixed >>> 33;
+        mixed *= 0xC4CEB9FE1A85EC53L;
+        mixed ^= mixed >>> 33;
+        return mixed;
+    }
+}
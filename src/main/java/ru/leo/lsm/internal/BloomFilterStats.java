@@ -0,0 +1,12 @@
+package ru.leo.lsm.internal;
+
+/**
+ * Statistics of SSTable bloom filters.
+ *
+ * @param filterHits       count of tables, that were skipped in point lookups, because filter said that key is absent
+ * @param falsePositives   count of tables, that were searched because of filter, but had no key
+ * @param prefixFilterHits count of tables, that were skipped in prefix scans, because prefix filter said that
+ *                         prefix is absent
+ */
+public record BloomFilterStats(long filterHits, long falsePositives, long prefixFilterHits) {
+}
@@ -0,0 +1,10 @@
+package ru.leo.lsm.internal;
+
+/**
+ * Statistics of background verification of SSTable checksums.
+ *
+ * @param scrubs          count of finished verifications of all tables
+ * @param corruptedBlocks count of blocks with wrong checksum, that were found by the last finished verification
+ */
+public record ChecksumStats(long scrubs, long corruptedBlocks) {
+}
@@ -0,0 +1,382 @@
+package ru.leo.lsm.internal;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.zip.CRC32C;
+import ru.leo.lsm.BaseEntry;
+import ru.leo.lsm.Config;
+import ru.leo.lsm.Entry;
+
+/**
+ * Append only log of upserts, that are not persisted in SSTables yet.
+ * Log is split in segments, every memtable generation starts new segment,
+ * so segments are deleted when memtable is flushed.
+ * Record format: record length, crc32c of record, entrys in SSTable format.
+ */
+public final class CommitLog implements Closeable {
+    private static final String LOG_FILENAME = "commitLog.bin";
+    private static final int HEADER_SIZE = 2 * Integer.BYTES;
+    private static final int DEFAULT_ALLOC_SIZE = 64 * 1024;
+    // In not sync modes writer helps background thread, if there are too much pending bytes
+    private static final long MAX_PENDING_BYTES = 4 * 1024 * 1024;
+
+    private final Path location;
+    private final SegmentOpener segmentOpener;
+    private final Config.CommitLogSync syncMode;
+    private final ScheduledExecutorService syncExecutor;
+    private final Object appendMonitor = new Object[0];
+    // Only one thread writes to file, others wait for it and may find their records already written
+    private final ReentrantLock writeLock = new ReentrantLock();
+    // Ids of first segments of memtable generations, oldest in begin. Guarded by writeLock.
+    private final Deque<Long> generations = new ArrayDeque<>();
+
+    // Guarded by appendMonitor
+    private ByteBuffer pending = ByteBuffer.allocate(DEFAULT_ALLOC_SIZE);
+    private long appendedBytes;
+    // Guarded by writeLock
+    private ByteBuffer spare = ByteBuffer.allocate(DEFAULT_ALLOC_SIZE);
+    private FileChannel channel;
+    // Entry of current segment in directory is not forced yet
+    private boolean isNewSegment;
+    private long firstSegmentId;
+    private long segmentId;
+    // Logical positions (through all segments) of written and forced bytes
+    private volatile long writtenBytes;
+    private volatile long syncedBytes;
+    // Error of write or force. Records may be lost after it, so appends and syncs fail, until log is reopened.
+    private volatile IOException writeError;
+
+    private CommitLog(Config config, long firstSegmentId, long segmentId, SegmentOpener segmentOpener) {
+        this.location = config.basePath();
+        this.segmentOpener = segmentOpener;
+        this.syncMode = config.commitLogSync();
+        this.firstSegmentId = firstSegmentId;
+        this.segmentId = segmentId;
+        generations.add(firstSegmentId);
+
+        if (syncMode == Config.CommitLogSync.SYNC) {
+            syncExecutor = null;
+        } else {
+            syncExecutor = Executors.newSingleThreadScheduledExecutor();
+            long period = config.commitLogSyncPeriodMillis();
+            syncExecutor.scheduleWithFixedDelay(this::backgroundSync, period, period, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Opens log in given location. Records of existing segments are not lost, they should be replayed and
+     * belong to the first memtable generation. New records are written in new segment.
+     */
+    public static CommitLog open(Config config) throws IOException {
+        return open(config, segment -> FileChannel.open(segment,
+            StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.APPEND));
+    }
+
+    static CommitLog open(Config config, SegmentOpener segmentOpener) throws IOException {
+        List<Long> segmentIds = listSegments(config.basePath());
+        long segmentId = segmentIds.isEmpty() ? 0 : segmentIds.getLast() + 1;
+        long firstSegmentId = segmentIds.isEmpty() ? segmentId : segmentIds.getFirst();
+        return new CommitLog(config, firstSegmentId, segmentId, segmentOpener);
+    }
+
+    /**
+     * Reads all records of segments, that existed on open, in order of writing.
+     * Reading of segment stops on first torn or corrupted record.
+     */
+    public void replay(Consumer<Entry<ByteBuffer>> consumer) throws IOException {
+        for (long id = firstSegmentId; id < segmentId; id++) {
+            Path segment = getSegmentPath(id);
+            if (!Files.exists(segment)) {
+                continue;
+            }
+
+            MappedByteBuffer segmentBB;
+            try (FileChannel segmentChannel = FileChannel.open(segment, StandardOpenOption.READ)) {
+                segmentBB = segmentChannel.map(FileChannel.MapMode.READ_ONLY, 0, segmentChannel.size());
+            }
+            replaySegment(segmentBB, consumer);
+        }
+    }
+
+    /**
+     * Appends entrys to log as one record and applies them while holding append order,
+     * so memtable sees upserts of the same key in the same order as replay will.
+     * Record is replayed completely or not replayed at all.
+     *
+     * @return position that should be passed to {@link #sync(long)}
+     */
+    public long append(List<Entry<ByteBuffer>> entrys, Runnable apply) {
+        IOException error = writeError;
+        if (error != null) {
+            throw new UncheckedIOException("Write of commit log failed.", error);
+        }
+        int recordSize = 0;
+        for (Entry<ByteBuffer> entry : entrys) {
+            recordSize += SSTable.getPersEntryByteSize(entry);
+        }
+
+        synchronized (appendMonitor) {
+            if (pending.remaining() < HEADER_SIZE + recordSize) {
+                ByteBuffer grown = ByteBuffer.allocate(Math.max(pending.capacity() * 2,
+                    pending.position() + HEADER_SIZE + recordSize));
+                grown.put(pending.flip());
+                pending = grown;
+            }
+
+            int recordStart = pending.position();
+            pending.position(recordStart + HEADER_SIZE);
+            for (Entry<ByteBuffer> entry : entrys) {
+                SSTable.persistEntry(entry, pending);
+            }
+
+            CRC32C crc = new CRC32C();
+            crc.update(pending.slice(recordStart + HEADER_SIZE, recordSize));
+            pending.putInt(recordStart, recordSize);
+            pending.putInt(recordStart + Integer.BYTES, (int) crc.getValue());
+
+            appendedBytes += HEADER_SIZE + recordSize;
+            apply.run();
+            return appendedBytes;
+        }
+    }
+
+    /**
+     * Waits until record is durable according to sync mode. In sync mode the first waiting writer writes
+     * and forces records of all writers, that appended before it (group commit).
+     */
+    public void sync(long position) throws IOException {
+        boolean force = syncMode == Config.CommitLogSync.SYNC;
+        if ((force ? syncedBytes : writtenBytes) >= position) {
+            return;
+        }
+        IOException error = writeError;
+        if (error != null) {
+            throw new IOException("Write of commit log failed.", error);
+        }
+        if (!force && position - writtenBytes <= MAX_PENDING_BYTES) {
+            return;
+        }
+
+        writeLock.lock();
+        try {
+            if ((force ? syncedBytes : writtenBytes) < position) {
+                writePending(force);
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Starts new segment for new memtable generation. Records of previous segment are forced in every sync mode.
+     * Caller should guarantee that there are no concurrent appends.
+     */
+    public void roll() throws IOException {
+        writeLock.lock();
+        try {
+            writePending(true);
+            closeChannel();
+            segmentId++;
+            generations.addLast(segmentId);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Deletes segments of the oldest memtable generation. Should be called when that memtable is persisted.
+     */
+    public void release() throws IOException {
+        writeLock.lock();
+        try {
+            generations.pollFirst();
+            long keepFrom = generations.isEmpty() ? segmentId + 1 : generations.getFirst();
+            if (keepFrom > segmentId) {
+                closeChannel();
+            }
+
+            for (; firstSegmentId < keepFrom; firstSegmentId++) {
+                Files.deleteIfExists(getSegmentPath(firstSegmentId));
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Writes and forces pending records. Segments are kept, until they are released.
+     */
+    @Override
+    public void close() throws IOException {
+        if (syncExecutor != null) {
+            syncExecutor.shutdown();
+        }
+
+        writeLock.lock();
+        try {
+            writePending(true);
+        } finally {
+            try {
+                closeChannel();
+            } finally {
+                writeLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Error is not thrown, else executor cancels all next syncs silently. It is kept in writeError.
+     */
+    private void backgroundSync() {
+        if (writeError != null) {
+            return;
+        }
+        writeLock.lock();
+        try {
+            writePending(syncMode == Config.CommitLogSync.PERIODIC);
+        } catch (IOException e) {
+            // Reported by the next append or sync
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    // Caller should hold writeLock
+    private void writePending(boolean force) throws IOException {
+        if (writeError != null) {
+            throw new IOException("Write of commit log failed.", writeError);
+        }
+        ByteBuffer toWrite;
+        long position;
+        synchronized (appendMonitor) {
+            toWrite = pending;
+            pending = spare;
+            position = appendedBytes;
+        }
+
+        try {
+            toWrite.flip();
+            if (toWrite.hasRemaining()) {
+                FileChannel segmentChannel = getChannel();
+                while (toWrite.hasRemaining()) {
+                    segmentChannel.write(toWrite);
+                }
+            }
+            if (force && channel != null && syncedBytes < position) {
+                channel.force(false);
+                if (isNewSegment) {
+                    // Else whole segment may be lost with its forced records
+                    SSTable.forceDirectory(location);
+                    isNewSegment = false;
+                }
+            }
+        } catch (IOException e) {
+            // Records of failed buffer are lost, so positions after the last written one never become durable
+            writeError = e;
+            throw e;
+        } catch (RuntimeException e) {
+            writeError = new IOException(e);
+            throw e;
+        } finally {
+            // Else the next swap gives to appenders the buffer, that is written
+            spare = toWrite.clear();
+        }
+
+        writtenBytes = position;
+        if (force) {
+            syncedBytes = position;
+        }
+    }
+
+    private FileChannel getChannel() throws IOException {
+        if (channel == null) {
+            channel = segmentOpener.open(getSegmentPath(segmentId));
+            isNewSegment = true;
+        }
+        return channel;
+    }
+
+    private void closeChannel() throws IOException {
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
+    }
+
+    private static void replaySegment(ByteBuffer segmentBB, Consumer<Entry<ByteBuffer>> consumer) {
+        CRC32C crc = new CRC32C();
+        int position = 0;
+        while (position + HEADER_SIZE <= segmentBB.limit()) {
+            int recordSize = segmentBB.getInt(position);
+            int recordCrc = segmentBB.getInt(position + Integer.BYTES);
+            int recordStart = position + HEADER_SIZE;
+            if (recordSize <= 0 || recordSize > segmentBB.limit() - recordStart) {
+                return;
+            }
+
+            crc.reset();
+            crc.update(segmentBB.slice(recordStart, recordSize));
+            if ((int) crc.getValue() != recordCrc) {
+                return;
+            }
+
+            position = recordStart;
+            while (position < recordStart + recordSize) {
+                byte[] key = readBytes(segmentBB, position);
+                position += Integer.BYTES + key.length;
+                byte[] value = readBytes(segmentBB, position);
+                position += Integer.BYTES + (value == null ? 0 : value.length);
+                consumer.accept(new BaseEntry<>(ByteBuffer.wrap(key), value == null ? null : ByteBuffer.wrap(value)));
+            }
+        }
+    }
+
+    private static byte[] readBytes(ByteBuffer segmentBB, int position) {
+        int len = segmentBB.getInt(position);
+        if (len == SSTable.LEN_FOR_NULL) {
+            return null;
+        }
+        byte[] bytes = new byte[len];
+        segmentBB.get(position + Integer.BYTES, bytes);
+        return bytes;
+    }
+
+    private static List<Long> listSegments(Path location) throws IOException {
+        List<Long> ids = new ArrayList<>();
+        try (DirectoryStream<Path> segments = Files.newDirectoryStream(location, "*" + LOG_FILENAME)) {
+            for (Path segment : segments) {
+                String fileName = segment.getFileName().toString();
+                ids.add(Long.parseLong(fileName.substring(0, fileName.length() - LOG_FILENAME.length())));
+            }
+        }
+        Collections.sort(ids);
+        return ids;
+    }
+
+    private Path getSegmentPath(long id) {
+        return location.resolve(id + LOG_FILENAME);
+    }
+
+    @FunctionalInterface
+    interface SegmentOpener {
+        FileChannel open(Path segment) throws IOException;
+    }
+}
@@ -0,0 +1,82 @@
+package ru.leo.lsm.internal;
+
+import java.nio.ByteBuffer;
+import ru.leo.lsm.BaseEntry;
+import ru.leo.lsm.Entry;
+
+/**
+ * Block of {@link BlockSSTable} with restored keys and values, that is kept in block cache.
+ * Values are copies in heap or views of mapped file in zero copy mode.
+ * Entrys are given as read only views, so cached block is never changed.
+ */
+public final class DecodedBlock {
+    // Estimated heap overhead of one entry: arrays headers and references
+    private static final int ENTRY_OVERHEAD = 48;
+
+    private final byte[][] keys;
+    // Read only, null for tombstone
+    private final ByteBuffer[] values;
+    private final int byteSize;
+
+    DecodedBlock(byte[][] keys, ByteBuffer[] values) {
+        this.keys = keys;
+        this.values = values;
+        int size = 0;
+        for (int i = 0; i < keys.length; i++) {
+            // Views of mapped file take no heap for data
+            boolean inHeap = values[i] != null && !values[i].isDirect();
+            size += ENTRY_OVERHEAD + keys[i].length + (inHeap ? values[i].remaining() : 0);
+        }
+        this.byteSize = size;
+    }
+
+    public int byteSize() {
+        return byteSize;
+    }
+
+    int size() {
+        return keys.length;
+    }
+
+    /**
+     * Binary search of key in block.
+     *
+     * @param from number of entry, search starts from, keys before it should be less than given
+     * @return number of first entry with key greater or equal to given, size if there is no such entry
+     */
+    int getGreaterOrEqual(ByteBuffer key, int from) {
+        int first = from;
+        int last = keys.length;
+        while (first < last) {
+            int position = (first + last) >>> 1;
+            if (compareKeyAt(position, key) < 0) {
+                first = position + 1;
+            } else {
+                last = position;
+            }
+        }
+        return first;
+    }
+
+    int compareKeyAt(int entryN, ByteBuffer key) {
+        byte[] entryKey = keys[entryN];
+        int keyFrom = key.position();
+        int commonLen = Math.min(entryKey.length, key.remaining());
+        for (int i = 0; i < commonLen; i++) {
+            int cmp = Byte.compare(entryKey[i], key.get(keyFrom + i));
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return entryKey.length - key.remaining();
+    }
+
+    Entry<ByteBuffer> entry(int entryN) {
+        ByteBuffer value = values[entryN];
+        // Duplicate has its own position, so readers don't disturb each other
+        return new BaseEntry<>(
+            ByteBuffer.wrap(keys[entryN]).asReadOnlyBuffer(),
+            value == null ? null : value.duplicate()
+        );
+    }
+}
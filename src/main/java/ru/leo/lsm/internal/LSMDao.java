@@ -1,56 +1,95 @@
 package ru.leo.lsm.internal;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
 import java.util.Iterator;
-import java.util.concurrent.ArrayBlockingQueue;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.TreeSet;
 import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.ConcurrentNavigableMap;
-import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 import ru.leo.lsm.Config;
 import ru.leo.lsm.Dao;
 import ru.leo.lsm.Entry;
+import ru.leo.lsm.SeekableIterator;
+import ru.leo.lsm.WriteBatch;
+import ru.leo.lsm.internal.cache.BlockCacheStats;
 import ru.leo.lsm.internal.executor.CompactJob;
 import ru.leo.lsm.internal.executor.FlushJob;
+import ru.leo.lsm.internal.memtable.MemTable;
 
 public class LSMDao implements Dao<ByteBuffer, Entry<ByteBuffer>> {
     private final ExecutorService executor = Executors.newFixedThreadPool(2);
-    private final Object monitor = new Object[0];
+    // Upserts hold read lock, memtable switch holds write lock, so memtable and log generation switch together
+    private final ReadWriteLock memTableLock = new ReentrantReadWriteLock();
     private final AtomicLong memTableByteSize = new AtomicLong();
-    // Poison pill is empty map
-    private final BlockingQueue<ConcurrentNavigableMap<ByteBuffer, Entry<ByteBuffer>>> flushQueue =
-        new ArrayBlockingQueue<>(1);
-    // True is signal to start compact, False is poison pill.
-    private final BlockingQueue<Boolean> compactionQueue = new LinkedBlockingQueue<>();
+    // Poison pill is empty memtable. Size is limited by writeController.
+    private final BlockingQueue<MemTable> flushQueue =
+        new LinkedBlockingQueue<>();
+    // Memtables that are waiting for flush or are in flushing state now. Fresh in begin.
+    private final Deque<MemTable> immutableMemTables =
+        new ConcurrentLinkedDeque<>();
+    // Requests of manual and automatic compactions and poison pill.
+    private final BlockingQueue<CompactJob.Request> compactionQueue = new LinkedBlockingQueue<>();
 
+    private final Config config;
     private final long flushThresholdBytes;
-    private final FlushJob flushJob;
+    private final WriteController writeController;
 
     private final SSTables ssTables;
+    private final CommitLog commitLog;
 
     private final Future<?> flushFuture;
     private final Future<?> compactFuture;
-    private volatile ConcurrentNavigableMap<ByteBuffer, Entry<ByteBuffer>> memTable;
+    // Null if scrubber is disabled
+    private final ScheduledExecutorService scrubExecutor;
+    private volatile MemTable memTable;
     private volatile boolean isClosed;
 
     public static LSMDao load(Config config) throws IOException {
-        return new LSMDao(config, SSTables.load(config.basePath()));
+        return new LSMDao(config, SSTables.load(config), CommitLog.open(config));
     }
 
-    private LSMDao(Config config, SSTables ssTables) {
-        memTable = new ConcurrentSkipListMap<>();
+    private LSMDao(Config config, SSTables ssTables, CommitLog commitLog) throws IOException {
+        this.config = config;
+        memTable = MemTable.create(config);
+        // Upserts, that were not flushed before crash
+        commitLog.replay(entry -> {
+            memTableByteSize.addAndGet(SSTable.getPersEntryByteSize(entry));
+            memTable.upsert(entry);
+        });
         flushThresholdBytes = config.flushThresholdBytes();
+        writeController = new WriteController(config.slowdownImmutableMemTables(), config.maxImmutableMemTables());
         this.ssTables = ssTables;
+        this.commitLog = commitLog;
         compactFuture = executor.submit(new CompactJob(ssTables, compactionQueue));
-        flushJob = new FlushJob(ssTables, flushQueue);
-        flushFuture = executor.submit(flushJob);
+        flushFuture = executor.submit(
+            new FlushJob(ssTables, flushQueue, immutableMemTables, commitLog, writeController, compactionQueue));
+        // Tables of previous run may be worth of compaction already
+        compactionQueue.add(CompactJob.Request.AUTOMATIC);
+        if (config.scrubPeriodMillis() == 0) {
+            scrubExecutor = null;
+        } else {
+            scrubExecutor = Executors.newSingleThreadScheduledExecutor();
+            scrubExecutor.scheduleWithFixedDelay(ssTables::scrub,
+                config.scrubPeriodMillis(), config.scrubPeriodMillis(), TimeUnit.MILLISECONDS);
+        }
     }
 
     @Override
@@ -62,16 +101,11 @@ public class LSMDao implements Dao<ByteBuffer, Entry<ByteBuffer>> {
             return filterTombstone(ans);
         }
 
-        var queueTable = flushQueue.peek();
-        ans = queueTable == null ? null : queueTable.get(key);
-        if (ans != null) {
-            return filterTombstone(ans);
-        }
-
-        var flushingTable = flushJob.getInFlushing();
-        ans = flushingTable == null ? null : flushingTable.get(key);
-        if (ans != null) {
-            return filterTombstone(ans);
+        for (var immutableMemTable : immutableMemTables) {
+            ans = immutableMemTable.get(key);
+            if (ans != null) {
+                return filterTombstone(ans);
+            }
         }
 
         if (ssTables != null) {
@@ -80,6 +114,37 @@ public class LSMDao implements Dao<ByteBuffer, Entry<ByteBuffer>> {
         return filterTombstone(ans);
     }
 
+    /**
+     * Keys are sorted once, memtables are asked key by key, then every table is searched once
+     * for all keys, that are not found yet.
+     */
+    @Override
+    public SortedMap<ByteBuffer, Entry<ByteBuffer>> getAll(Collection<ByteBuffer> keys) {
+        checkClose();
+
+        List<ByteBuffer> sortedKeys = new ArrayList<>(new TreeSet<>(keys));
+        List<Entry<ByteBuffer>> found = new ArrayList<>(Collections.nCopies(sortedKeys.size(), null));
+        for (int i = 0; i < sortedKeys.size(); i++) {
+            ByteBuffer key = sortedKeys.get(i);
+            Entry<ByteBuffer> ans = memTable.get(key);
+            Iterator<MemTable> immutables = immutableMemTables.iterator();
+            while (ans == null && immutables.hasNext()) {
+                ans = immutables.next().get(key);
+            }
+            found.set(i, ans);
+        }
+
+        ssTables.findEntrys(sortedKeys, found);
+
+        SortedMap<ByteBuffer, Entry<ByteBuffer>> result = new TreeMap<>();
+        for (Entry<ByteBuffer> entry : found) {
+            if (filterTombstone(entry) != null) {
+                result.put(entry.key(), entry);
+            }
+        }
+        return result;
+    }
+
     private static Entry<ByteBuffer> filterTombstone(Entry<ByteBuffer> ans) {
         if (ans == null || ans.value() == null) {
             return null;
@@ -88,66 +153,244 @@ public class LSMDao implements Dao<ByteBuffer, Entry<ByteBuffer>> {
         return ans;
     }
 
+    /**
+     * Gives range as iterator, that can be moved forward by {@link SeekableIterator#seek} without new search
+     * in every table: table iterators gallop from their positions, merge of them is kept.
+     */
     @Override
-    public Iterator<Entry<ByteBuffer>> get(ByteBuffer from, ByteBuffer to) {
+    public SeekableIterator<ByteBuffer, Entry<ByteBuffer>> get(ByteBuffer from, ByteBuffer to) {
         checkClose();
 
-        var memTableRange = getRange(memTable, from, to);
-        if (ssTables == null && memTableRange != null) {
-            return memTableRange.values().iterator();
+        if (ssTables == null) {
+            return memTable.get(from, to);
         }
 
-        return ssTables == null ? null : ssTables.getMergedEntrys(
-            from, to,
-            memTableRange,
-            // Tables that are in flushing state now:
-            getRange(flushQueue.peek(), from, to),
-            getRange(flushJob.getInFlushing(), from, to)
-        );
+        return ssTables.getMergedEntrys(from, to, memTables());
     }
 
+    /**
+     * Gives keys of range. Values of tables are not read, blocks are not read in block cache.
+     */
     @Override
-    public void upsert(Entry<ByteBuffer> entry) {
+    public Iterator<ByteBuffer> keys(ByteBuffer from, ByteBuffer to) {
         checkClose();
 
-        int entrySize = SSTable.getPersEntryByteSize(entry);
-        if (memTableByteSize.get() + entrySize > flushThresholdBytes) {
-            synchronized (monitor) {
-                if (memTableByteSize.addAndGet(entrySize) > flushThresholdBytes) {
-                    // Add() throws exception if queue is full, so upsert will not be done.
-                    flushQueue.add(memTable);
-                    // Create new in memory memTable if queue of flushing not full (exception wasn't thrown)
-                    memTable = new ConcurrentSkipListMap<>();
-                    memTableByteSize.set(entrySize);
-                }
+        Iterator<Entry<ByteBuffer>> entrys = ssTables == null
+            ? memTable.get(from, to)
+            : ssTables.getLazyEntrys(from, to, memTables());
+        return new Iterator<>() {
+            @Override
+            public boolean hasNext() {
+                return entrys.hasNext();
             }
-        } else {
-            memTableByteSize.addAndGet(entrySize);
+
+            @Override
+            public ByteBuffer next() {
+                return entrys.next().key();
+            }
+        };
+    }
+
+    @Override
+    public Iterator<Entry<ByteBuffer>> descending(ByteBuffer from, ByteBuffer to) {
+        checkClose();
+
+        if (ssTables == null) {
+            return memTable.getDescending(from, to);
+        }
+
+        return ssTables.getDescendingEntrys(from, to, memTables());
+    }
+
+    @Override
+    public List<Iterator<Entry<ByteBuffer>>> partitions(ByteBuffer from, ByteBuffer to, int count) {
+        checkClose();
+        if (count < 1) {
+            throw new IllegalArgumentException("Expected 1 <= count.");
+        }
+
+        if (ssTables == null) {
+            return List.of(memTable.get(from, to));
         }
 
-        memTable.put(entry.key(), entry);
+        return ssTables.getPartitions(from, to, count, memTables());
+    }
+
+    /**
+     * Estimates count of entrys in range without reading of tables and memtables. Memtable, that has keys in range,
+     * is counted whole by its tracked count of upserts, so error is bounded by size of memtable.
+     * Tables are estimated by indexes: exactly for dense index of legacy tables,
+     * by size of covered blocks for block tables. Counts of all memtables and tables are summed, so
+     * overwritten keys and tombstones make estimation greater than count of live keys.
+     */
+    @Override
+    public long estimateCount(ByteBuffer from, ByteBuffer to) {
+        checkClose();
+        if (from != null && to != null && from.compareTo(to) >= 0) {
+            return 0;
+        }
+
+        long count = 0;
+        for (MemTable table : memTables()) {
+            if (table.get(from, to).hasNext()) {
+                count += table.upsertsCount();
+            }
+        }
+        return ssTables == null ? count : count + ssTables.estimateCount(from, to);
+    }
+
+    /**
+     * Estimates size of range the same way as {@link #estimateCount}. Memtables are measured by tracked sizes
+     * of upserted entrys, tables are measured by sizes of range in files.
+     */
+    @Override
+    public long estimateBytes(ByteBuffer from, ByteBuffer to) {
+        checkClose();
+        if (from != null && to != null && from.compareTo(to) >= 0) {
+            return 0;
+        }
+
+        long bytes = 0;
+        for (MemTable table : memTables()) {
+            if (table.get(from, to).hasNext()) {
+                bytes += table.upsertedBytes();
+            }
+        }
+        return ssTables == null ? bytes : bytes + ssTables.estimateBytes(from, to);
+    }
+
+    @Override
+    public Iterator<Entry<ByteBuffer>> prefix(ByteBuffer prefix) {
+        checkClose();
+
+        ByteBuffer to = prefixUpperBound(prefix);
+        if (ssTables == null) {
+            return memTable.get(prefix, to);
+        }
+
+        return ssTables.getPrefixEntrys(prefix, to, memTables());
+    }
+
+    /**
+     * Gives memtables, fresh first.
+     */
+    private List<MemTable> memTables() {
+        List<MemTable> memTables = new ArrayList<>();
+        memTables.add(memTable);
+        // Tables that are waiting for flush or in flushing state now:
+        memTables.addAll(immutableMemTables);
+        return memTables;
+    }
+
+    /**
+     * Gives the least key, that is greater than all keys with given prefix, in order of {@link ByteBuffer#compareTo}.
+     * Bytes are compared as signed, so the greatest byte is {@link Byte#MAX_VALUE}.
+     *
+     * @return bound or null if all keys, that are greater than prefix, start with it
+     */
+    private static ByteBuffer prefixUpperBound(ByteBuffer prefix) {
+        int length = prefix.remaining();
+        while (length > 0 && prefix.get(prefix.position() + length - 1) == Byte.MAX_VALUE) {
+            length--;
+        }
+        if (length == 0) {
+            return null;
+        }
+
+        ByteBuffer bound = ByteBuffer.allocate(length).put(prefix.slice(prefix.position(), length));
+        bound.put(length - 1, (byte) (bound.get(length - 1) + 1));
+        return bound.flip();
+    }
+
+    @Override
+    public void upsert(Entry<ByteBuffer> entry) {
+        checkClose();
+        write(List.of(entry), SSTable.getPersEntryByteSize(entry), () -> memTable.upsert(entry));
+    }
+
+    @Override
+    public void write(WriteBatch<ByteBuffer> batch) {
+        checkClose();
+        if (batch.isEmpty()) {
+            return;
+        }
+
+        List<Entry<ByteBuffer>> entrys = List.copyOf(batch.entries());
+        long batchSize = 0;
+        for (Entry<ByteBuffer> entry : entrys) {
+            batchSize += SSTable.getPersEntryByteSize(entry);
+        }
+        write(entrys, batchSize, () -> memTable.upsert(entrys));
+    }
+
+    /**
+     * Writes entrys to log and memtable. Entrys are never split between memtables.
+     *
+     * @param apply upserts entrys in current memtable
+     */
+    private void write(List<Entry<ByteBuffer>> entrys, long byteSize, Runnable apply) {
+        writeController.delayWrite(immutableMemTables.size());
+        if (memTableByteSize.get() + byteSize > flushThresholdBytes) {
+            switchMemTable(byteSize);
+        }
+
+        long logPosition;
+        memTableLock.readLock().lock();
+        try {
+            memTableByteSize.addAndGet(byteSize);
+            logPosition = commitLog.append(entrys, apply);
+        } finally {
+            memTableLock.readLock().unlock();
+        }
+
+        try {
+            commitLog.sync(logPosition);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
     }
 
     @Override
     public void flush() {
         checkClose();
 
-        if (!memTable.isEmpty()) {
-            // Empty mem table is poison bill.
-            try {
-                flushQueue.put(memTable);
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
+        memTableLock.writeLock().lock();
+        try {
+            if (!memTable.isEmpty()) {
+                // Empty mem table is poison bill.
+                try {
+                    writeController.awaitFreeSlot(immutableMemTables::size, flushFuture::isDone);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                switchToNewMemTable();
             }
-            memTable = new ConcurrentSkipListMap<>();
-            memTableByteSize.set(0);
+        } finally {
+            memTableLock.writeLock().unlock();
         }
     }
 
     @Override
     public void compact() {
         checkClose();
-        compactionQueue.add(true);
+        compactionQueue.add(CompactJob.Request.MANUAL);
+    }
+
+    public WriteStallStats getWriteStallStats() {
+        return writeController.getStats();
+    }
+
+    public BloomFilterStats getBloomFilterStats() {
+        return ssTables.getBloomFilterStats();
+    }
+
+    public ChecksumStats getChecksumStats() {
+        return ssTables.getChecksumStats();
+    }
+
+    public BlockCacheStats getBlockCacheStats() {
+        return ssTables.getBlockCacheStats();
     }
 
     @Override
@@ -157,46 +400,64 @@ public class LSMDao implements Dao<ByteBuffer, Entry<ByteBuffer>> {
         }
 
         isClosed = true;
+        if (scrubExecutor != null) {
+            // Scrub is stopped between tables
+            scrubExecutor.shutdownNow();
+        }
         try {
-            compactionQueue.put(CompactJob.POISON_PILL);
+            // Flushes are finished first, so compactions, that they request, are done before poison pill
             flushQueue.put(FlushJob.POISON_PILL);
             flushFuture.get();
+            compactionQueue.put(CompactJob.POISON_PILL);
             compactFuture.get();
+            if (scrubExecutor != null) {
+                scrubExecutor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+            }
         } catch (InterruptedException | ExecutionException e) {
             Thread.currentThread().interrupt();
         }
         executor.shutdown();
+        commitLog.close();
         ssTables.save(memTable);
+        // Last memtable is persisted, so its log is not needed
+        commitLog.release();
         ssTables.close();
     }
 
-    private void checkClose() {
-        if (isClosed) {
-            throw new RuntimeException("In memory dao closed.");
+    private void switchMemTable(long byteSize) {
+        memTableLock.writeLock().lock();
+        try {
+            if (memTableByteSize.get() + byteSize > flushThresholdBytes && !memTable.isEmpty()) {
+                // Upserts are stopped here, until there is place for one more immutable memtable
+                writeController.awaitFreeSlot(immutableMemTables::size, flushFuture::isDone);
+                switchToNewMemTable();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } finally {
+            memTableLock.writeLock().unlock();
         }
     }
 
-    /**
-     * Cuts mem table in given range.
-     *
-     * @return null if memTable is null, otherwise cut with given range memTable.
-     */
-    private static ConcurrentNavigableMap<ByteBuffer, Entry<ByteBuffer>> getRange(
-        ConcurrentNavigableMap<ByteBuffer, Entry<ByteBuffer>> memTable,
-        ByteBuffer from, ByteBuffer to
-    ) {
-        ConcurrentNavigableMap<ByteBuffer, Entry<ByteBuffer>> cut;
-
-        if ((from == null && to == null) || memTable == null) {
-            cut = memTable;
-        } else if (from == null) {
-            cut = memTable.headMap(to);
-        } else if (to == null) {
-            cut = memTable.tailMap(from);
-        } else {
-            cut = memTable.subMap(from, to);
+    // Caller should hold write lock of memTableLock
+    private void switchToNewMemTable() {
+        // Memtable is added to immutable before switching, so readers see it in one of places
+        immutableMemTables.addFirst(memTable);
+        // Log is rolled before flush, else flushed memtable may release segment of the next one
+        try {
+            commitLog.roll();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
         }
+        flushQueue.add(memTable);
+        memTable = MemTable.create(config);
+        memTableByteSize.set(0);
+    }
 
-        return cut;
+    private void checkClose() {
+        if (isClosed) {
+            throw new RuntimeException("In memory dao closed.");
+        }
     }
 }
@@ -0,0 +1,49 @@
+package ru.leo.lsm.internal;
+
+import java.nio.ByteBuffer;
+import ru.leo.lsm.Entry;
+
+/**
+ * Entry of SSTable iterator, that reads value from memory file only on the first call of {@link #value()}.
+ * Consumers, that need only keys or filter by keys, don't read values at all.
+ */
+final class LazyEntry implements Entry<ByteBuffer> {
+    private final ByteBuffer key;
+    private final ByteBuffer memoryBB;
+    private final int valuePosition;
+    // LEN_FOR_NULL for tombstone
+    private final int valueLen;
+    private final boolean zeroCopyReads;
+    private ByteBuffer value;
+
+    LazyEntry(ByteBuffer key, ByteBuffer memoryBB, int valuePosition, int valueLen, boolean zeroCopyReads) {
+        this.key = key;
+        this.memoryBB = memoryBB;
+        this.valuePosition = valuePosition;
+        this.valueLen = valueLen;
+        this.zeroCopyReads = zeroCopyReads;
+    }
+
+    @Override
+    public ByteBuffer key() {
+        return key;
+    }
+
+    @Override
+    public ByteBuffer value() {
+        if (value == null && valueLen != SSTable.LEN_FOR_NULL) {
+            value = SSTable.readBuffer(memoryBB, valuePosition, valueLen, zeroCopyReads);
+        }
+        return value;
+    }
+
+    @Override
+    public boolean isTombstone() {
+        return valueLen == SSTable.LEN_FOR_NULL;
+    }
+
+    @Override
+    public String toString() {
+        return "{" + key + ":" + value() + "}";
+    }
+}
@@ -0,0 +1,278 @@
+package ru.leo.lsm.internal;
+
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Optional;
+import ru.leo.lsm.BaseEntry;
+import ru.leo.lsm.Entry;
+import ru.leo.lsm.SeekableIterator;
+
+/**
+ * First format of tables, it is only read. Index file has offset of every entry in memory file and
+ * count of entrys in the end. Memory file has entrys one by one in {@link SSTable#persistEntry} format.
+ */
+final class LegacySSTable extends SSTable {
+    // Offsets are ints, so memory file is less than 2 GB and is mapped by one buffer
+    private final MappedByteBuffer memoryBB;
+    private final boolean zeroCopyReads;
+    private int entrysC;
+    // Fence keys of table, null if table is empty
+    private final ByteBuffer minKey;
+    private final ByteBuffer maxKey;
+
+    LegacySSTable(
+        MappedByteBuffer indexBB,
+        MappedByteBuffer memoryBB,
+        BloomFilter bloomFilter,
+        BloomFilter prefixFilter,
+        boolean zeroCopyReads,
+        int storagePartN
+    ) {
+        super(indexBB, bloomFilter, prefixFilter, storagePartN);
+        this.memoryBB = memoryBB;
+        this.zeroCopyReads = zeroCopyReads;
+        // I write count of written entrys in the end of index file
+        if (indexBB.capacity() != 0) {
+            entrysC = indexBB.getInt(indexBB.capacity() - Integer.BYTES);
+        }
+        minKey = entrysC == 0 ? null : keyAt(0);
+        maxKey = entrysC == 0 ? null : keyAt(entrysC - 1);
+    }
+
+    @Override
+    MappedByteBuffer[] memorySegments() {
+        return new MappedByteBuffer[] {memoryBB};
+    }
+
+    @Override
+    ByteBuffer minKey() {
+        return minKey;
+    }
+
+    @Override
+    ByteBuffer maxKey() {
+        return maxKey;
+    }
+
+    @Override
+    public Entry<ByteBuffer> get(ByteBuffer key) {
+        int position = getGreaterOrEqual(key, 0);
+        if (position == entrysC || compareKeyAt(position, key) != 0) {
+            return null;
+        }
+        // Only found entry is read in heap
+        return readEntry(position);
+    }
+
+    @Override
+    public ForwardSearch forwardSearch() {
+        return new ForwardSearch() {
+            private int position;
+
+            @Override
+            public Entry<ByteBuffer> get(ByteBuffer key) {
+                position = getGreaterOrEqual(key, position);
+                return position == entrysC || compareKeyAt(position, key) != 0 ? null : readEntry(position);
+            }
+        };
+    }
+
+    @Override
+    SeekableIterator<ByteBuffer, Entry<ByteBuffer>> iterator(ByteBuffer from, ByteBuffer to) {
+        return new StoragePartIterator(from, to);
+    }
+
+    @Override
+    SeekableIterator<ByteBuffer, Entry<ByteBuffer>> lazyIterator(ByteBuffer from, ByteBuffer to) {
+        return new StoragePartIterator(from, to);
+    }
+
+    /**
+     * Legacy tables have no checksums.
+     */
+    @Override
+    int scrub() {
+        return 0;
+    }
+
+    @Override
+    Iterator<Entry<ByteBuffer>> descendingIterator(ByteBuffer from, ByteBuffer to) {
+        return new Iterator<>() {
+            // Entrys are walked by offsets in index file from the end
+            private int position = (to == null ? entrysC : getGreaterOrEqual(to, 0)) - 1;
+            private final int end = getGreaterOrEqual(from, 0);
+
+            @Override
+            public boolean hasNext() {
+                return position >= end;
+            }
+
+            @Override
+            public Entry<ByteBuffer> next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return lazyEntry(position--);
+            }
+        };
+    }
+
+    @Override
+    List<ByteBuffer> sampleKeys(ByteBuffer from, ByteBuffer to, int maxSamples) {
+        int first = getGreaterOrEqual(from, 0);
+        int last = to == null ? entrysC : getGreaterOrEqual(to, first);
+        int step = Math.max(1, (last - first + maxSamples - 1) / maxSamples);
+        List<ByteBuffer> samples = new ArrayList<>();
+        for (int position = first; position < last; position += step) {
+            samples.add(keyAt(position));
+        }
+        return samples;
+    }
+
+    /**
+     * Index is dense, so count is exact.
+     */
+    @Override
+    long estimateCount(ByteBuffer from, ByteBuffer to) {
+        int first = getGreaterOrEqual(from, 0);
+        int last = to == null ? entrysC : getGreaterOrEqual(to, first);
+        return Math.max(0, last - first);
+    }
+
+    /**
+     * Size is exact, it is distance between offsets of the first entry of range and the first entry after it.
+     */
+    @Override
+    long estimateBytes(ByteBuffer from, ByteBuffer to) {
+        int first = getGreaterOrEqual(from, 0);
+        int last = to == null ? entrysC : getGreaterOrEqual(to, first);
+        return first >= last ? 0 : offsetOf(last) - offsetOf(first);
+    }
+
+    private int offsetOf(int entryN) {
+        return entryN == entrysC ? memoryBB.capacity() : indexBB.getInt(entryN * Integer.BYTES);
+    }
+
+    /**
+     * Binary search over mapped files. Keys are compared in place, nothing is read in heap.
+     *
+     * @param from number of entry, search starts from, keys before it should be less than given
+     * @return number of first entry with key greater or equal to given, entrysC if there is no such entry
+     */
+    private int getGreaterOrEqual(ByteBuffer key, int from) {
+        if (key == null) {
+            return from;
+        }
+
+        int first = from;
+        int last = entrysC;
+        while (first < last) {
+            int position = (first + last) >>> 1;
+            if (compareKeyAt(position, key) < 0) {
+                first = position + 1;
+            } else {
+                last = position;
+            }
+        }
+        return first;
+    }
+
+    private ByteBuffer keyAt(int entryN) {
+        int ind = indexBB.getInt(entryN * Integer.BYTES);
+        return memoryBB.slice(ind + Integer.BYTES, memoryBB.getInt(ind));
+    }
+
+    private int compareKeyAt(int entryN, ByteBuffer key) {
+        int ind = indexBB.getInt(entryN * Integer.BYTES);
+        return compareKey(memoryBB, ind + Integer.BYTES, memoryBB.getInt(ind), key);
+    }
+
+    private Entry<ByteBuffer> readEntry(int entryN) {
+        int ind = indexBB.getInt(entryN * Integer.BYTES);
+        if (zeroCopyReads) {
+            int keyLen = memoryBB.getInt(ind);
+            int valueInd = ind + Integer.BYTES + keyLen;
+            int valueLen = memoryBB.getInt(valueInd);
+            return new BaseEntry<>(
+                memoryBB.slice(ind + Integer.BYTES, keyLen),
+                valueLen == LEN_FOR_NULL ? null : memoryBB.slice(valueInd + Integer.BYTES, valueLen)
+            );
+        }
+        var key = readBytes(ind);
+        if (key.isEmpty()) {
+            throw new RuntimeException("Entry without key.");
+        }
+        ind += Integer.BYTES + key.get().length;
+        var value = readBytes(ind);
+        return new BaseEntry<>(ByteBuffer.wrap(key.get()), value.map(ByteBuffer::wrap).orElse(null));
+    }
+
+    private Entry<ByteBuffer> lazyEntry(int entryN) {
+        int ind = indexBB.getInt(entryN * Integer.BYTES);
+        int keyLen = memoryBB.getInt(ind);
+        ByteBuffer key = readBuffer(memoryBB, ind + Integer.BYTES, keyLen, zeroCopyReads);
+        int valueInd = ind + Integer.BYTES + keyLen;
+        return new LazyEntry(key, memoryBB, valueInd + Integer.BYTES, memoryBB.getInt(valueInd), zeroCopyReads);
+    }
+
+    private Optional<byte[]> readBytes(int ind) {
+        int currInd = ind;
+        int len = memoryBB.getInt(currInd);
+        if (len == LEN_FOR_NULL) {
+            return Optional.empty();
+        }
+        currInd += Integer.BYTES;
+        byte[] bytes = new byte[len];
+        memoryBB.get(currInd, bytes);
+        return Optional.of(bytes);
+    }
+
+    private class StoragePartIterator implements SeekableIterator<ByteBuffer, Entry<ByteBuffer>> {
+        private int nextPos;
+        private final ByteBuffer to;
+        private Entry<ByteBuffer> next;
+
+        public StoragePartIterator(ByteBuffer from, ByteBuffer to) {
+            this.to = to;
+            nextPos = getGreaterOrEqual(from, 0);
+            if (nextPos < entrysC) {
+                next = lazyEntry(nextPos);
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null && nextPos < entrysC && (to == null || next.key().compareTo(to) < 0);
+        }
+
+        @Override
+        public Entry<ByteBuffer> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+
+            Entry<ByteBuffer> current = next;
+            nextPos++;
+            if (nextPos < entrysC) {
+                next = lazyEntry(nextPos);
+            }
+            return current;
+        }
+
+        @Override
+        public void seek(ByteBuffer key) {
+            if (next == null || nextPos == entrysC || next.key().compareTo(key) >= 0) {
+                return;
+            }
+
+            nextPos = gallop(position -> compareKeyAt(position, key) < 0, nextPos + 1, entrysC);
+            if (nextPos < entrysC) {
+                next = lazyEntry(nextPos);
+            }
+        }
+    }
+}
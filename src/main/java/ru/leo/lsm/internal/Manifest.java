@@ -0,0 +1,96 @@
+package ru.leo.lsm.internal;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32C;
+
+/**
+ * Numbers of table files by levels. Manifest is replaced on every change of tables, so files of tables,
+ * that are not in manifest, are left by crash and are deleted on load.
+ *
+ * @param nextTableN number of the next saved table
+ * @param levels     numbers of tables of levels, in order of tables in levels
+ */
+record Manifest(int nextTableN, List<List<Integer>> levels) {
+    private static final int VERSION = 1;
+    private static final String TMP_PREFIX = "tmp_";
+
+    /**
+     * Reads manifest.
+     *
+     * @throws IllegalStateException if manifest has wrong checksum or unknown version
+     */
+    static Manifest read(Path path) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(path));
+        int checksumPosition = buffer.limit() - Integer.BYTES;
+        if (checksumPosition < 0 || checksum(buffer, checksumPosition) != buffer.getInt(checksumPosition)) {
+            throw new IllegalStateException("Manifest " + path + " is corrupted.");
+        }
+        int version = buffer.getInt();
+        if (version != VERSION) {
+            throw new IllegalStateException("Unknown version of manifest: " + version);
+        }
+
+        int nextTableN = buffer.getInt();
+        int levelsC = buffer.getInt();
+        List<List<Integer>> levels = new ArrayList<>(levelsC);
+        for (int level = 0; level < levelsC; level++) {
+            int tablesC = buffer.getInt();
+            List<Integer> tables = new ArrayList<>(tablesC);
+            for (int i = 0; i < tablesC; i++) {
+                tables.add(buffer.getInt());
+            }
+            levels.add(tables);
+        }
+        return new Manifest(nextTableN, levels);
+    }
+
+    /**
+     * Replaces manifest atomically, it is written and forced in temporary file first.
+     * Rename is forced too, so deletion of tables, that are not in new manifest, is safe.
+     */
+    void write(Path path) throws IOException {
+        int size = 4 * Integer.BYTES;
+        for (List<Integer> tables : levels) {
+            size += Integer.BYTES * (1 + tables.size());
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        buffer.putInt(VERSION);
+        buffer.putInt(nextTableN);
+        buffer.putInt(levels.size());
+        for (List<Integer> tables : levels) {
+            buffer.putInt(tables.size());
+            for (int tableN : tables) {
+                buffer.putInt(tableN);
+            }
+        }
+        buffer.putInt(checksum(buffer, buffer.position()));
+
+        Path tmpPath = path.resolveSibling(TMP_PREFIX + path.getFileName());
+        try (
+            FileChannel channel = FileChannel.open(tmpPath,
+                StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)
+        ) {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(false);
+        }
+        Files.move(tmpPath, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        SSTable.forceDirectory(path.getParent());
+    }
+
+    private static int checksum(ByteBuffer buffer, int len) {
+        CRC32C crc = new CRC32C();
+        crc.update(buffer.array(), 0, len);
+        return (int) crc.getValue();
+    }
+}
@@ -1,7 +1,9 @@
 package ru.leo.lsm.internal;
 
 import java.io.IOException;
+import java.lang.ref.Cleaner;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.file.Files;
@@ -9,218 +11,413 @@ import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
 import java.util.EnumSet;
 import java.util.Iterator;
-import java.util.NoSuchElementException;
-import java.util.Optional;
-import ru.leo.lsm.BaseEntry;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntPredicate;
+import ru.leo.lsm.Config;
 import ru.leo.lsm.Entry;
-import ru.leo.lsm.internal.iterator.IndexedPeekIterator;
-
-public class SSTable {
+import ru.leo.lsm.PrefixExtractor;
+import ru.leo.lsm.SeekableIterator;
+import ru.leo.lsm.internal.cache.BlockCache;
+
+/**
+ * Immutable sorted part of storage, that is kept in index and memory files.
+ * New tables are saved in {@link BlockSSTable} format, tables of {@link LegacySSTable} format are only read.
+ */
+public abstract class SSTable {
     public static final int LEN_FOR_NULL = -1;
-    private static final int DEFAULT_ALLOC_SIZE = 2048;
-    private static final int IND_BUFF_SIZE = 10;
+    // Deletes files of compacted tables, when their mapped buffers are collected
+    private static final Cleaner FILES_CLEANER = Cleaner.create();
+    // Views of files, given by table, keep mapped buffers reachable, so files stay mapped while views are used
+    final MappedByteBuffer indexBB;
     private final int storagePartN;
-    private final MappedByteBuffer indexBB;
-    private final MappedByteBuffer memoryBB;
-    private int entrysC;
-
-    private SSTable(MappedByteBuffer indexBB, MappedByteBuffer memoryBB, int storagePartN) {
-        this.storagePartN = storagePartN;
-        this.memoryBB = memoryBB;
+    // Null for tables, that were saved without filter
+    private final BloomFilter bloomFilter;
+    // Null for tables without filter or with filter of other prefix extractor
+    private final BloomFilter prefixFilter;
+
+    SSTable(
+        MappedByteBuffer indexBB,
+        BloomFilter bloomFilter,
+        BloomFilter prefixFilter,
+        int storagePartN
+    ) {
         this.indexBB = indexBB;
-        // I write count of written entrys in the end of index file
-        if (indexBB.capacity() != 0) {
-            entrysC = indexBB.getInt(indexBB.capacity() - Integer.BYTES);
-        }
+        this.storagePartN = storagePartN;
+        this.bloomFilter = bloomFilter;
+        this.prefixFilter = prefixFilter;
     }
 
-    public static SSTable load(Path indexPath, Path memoryPath, int storagePartN) throws IOException {
-        MappedByteBuffer indexBB = mapFile(indexPath, (int) Files.size(indexPath));
-        MappedByteBuffer memoryBB = mapFile(memoryPath, (int) Files.size(memoryPath));
-
-        return new SSTable(indexBB, memoryBB, storagePartN);
+    /**
+     * Maps files of table.
+     *
+     * @param blockCache      cache of blocks, that is shared by tables, null if cache is disabled
+     * @param zeroCopyReads   values of entrys are given as read only views of memory file, without copy in heap
+     * @param checksumVerification verification of block checksums on reads
+     * @param prefixExtractor extractor of prefix filter, null if prefix filters are disabled
+     * @throws IllegalStateException if index has wrong checksum and checksums are verified
+     */
+    public static SSTable load(
+        Path indexPath,
+        Path memoryPath,
+        Path bloomPath,
+        Path prefixBloomPath,
+        BlockCache<DecodedBlock> blockCache,
+        boolean zeroCopyReads,
+        Config.ChecksumVerification checksumVerification,
+        PrefixExtractor prefixExtractor,
+        int storagePartN
+    ) throws IOException {
+        return load(indexPath, memoryPath, bloomPath, prefixBloomPath, blockCache, zeroCopyReads,
+            checksumVerification, prefixExtractor, BlockSSTable.MAX_SEGMENT_BYTES, storagePartN);
     }
 
-    // Entrys count will be written in the end of index file
-    public static void saveSTPart(Path indexPath, Path memoryPath, Iterator<Entry<ByteBuffer>> entrysToWrite)
-        throws IOException {
-        ByteBuffer memBufferToWrite = ByteBuffer.allocate(DEFAULT_ALLOC_SIZE);
-        ByteBuffer indBufferToWrite = ByteBuffer.allocate(Integer.BYTES * IND_BUFF_SIZE);
-        int bytesWritten = 0;
-        int entrysC = 0;
+    /**
+     * Maps files of table, memory file of block table is mapped by segments of given size.
+     */
+    static SSTable load(
+        Path indexPath,
+        Path memoryPath,
+        Path bloomPath,
+        Path prefixBloomPath,
+        BlockCache<DecodedBlock> blockCache,
+        boolean zeroCopyReads,
+        Config.ChecksumVerification checksumVerification,
+        PrefixExtractor prefixExtractor,
+        long maxSegmentBytes,
+        int storagePartN
+    ) throws IOException {
+        MappedByteBuffer indexBB = mapFile(indexPath, Files.size(indexPath));
+        BloomFilter bloomFilter = Files.exists(bloomPath) ? BloomFilter.load(bloomPath) : null;
+        BloomFilter prefixFilter = prefixExtractor != null && Files.exists(prefixBloomPath)
+            ? BloomFilter.loadPrefixFilter(prefixBloomPath, prefixExtractor.name()) : null;
+
+        if (BlockSSTable.isBlockFormat(indexBB)) {
+            return new BlockSSTable(indexBB, memoryPath, bloomFilter, prefixFilter, blockCache, zeroCopyReads,
+                checksumVerification, maxSegmentBytes, storagePartN);
+        }
+        MappedByteBuffer memoryBB = mapFile(memoryPath, Files.size(memoryPath));
+        return new LegacySSTable(indexBB, memoryBB, bloomFilter, prefixFilter, zeroCopyReads, storagePartN);
+    }
 
-        try (
-            FileChannel memChannel = (FileChannel) Files.newByteChannel(memoryPath,
-                EnumSet.of(StandardOpenOption.WRITE, StandardOpenOption.CREATE_NEW));
-            FileChannel indChannel = (FileChannel) Files.newByteChannel(indexPath,
-                EnumSet.of(StandardOpenOption.WRITE, StandardOpenOption.CREATE_NEW))
-        ) {
-            while (entrysToWrite.hasNext()) {
-                Entry<ByteBuffer> entry = entrysToWrite.next();
-                int entryBytesC = getPersEntryByteSize(entry);
-
-                indBufferToWrite.putInt(bytesWritten);
-                if (indBufferToWrite.position() == indBufferToWrite.capacity()) {
-                    indBufferToWrite.flip();
-                    indChannel.write(indBufferToWrite);
-                    indBufferToWrite.clear();
-                }
+    /**
+     * Saves entrys in new files of block format.
+     *
+     * @param bitsPerKey      size of bloom filters, filters are not saved if it is 0
+     * @param prefixExtractor extractor of prefixes for prefix filter, filter is not saved if it is null
+     * @param expectedEntrysC count of entrys, that bloom filter is sized for
+     */
+    public static void saveSTPart(
+        Path indexPath,
+        Path memoryPath,
+        Path bloomPath,
+        Path prefixBloomPath,
+        int bitsPerKey,
+        PrefixExtractor prefixExtractor,
+        long expectedEntrysC,
+        Iterator<Entry<ByteBuffer>> entrysToWrite
+    ) throws IOException {
+        BlockSSTable.save(indexPath, memoryPath, bloomPath, prefixBloomPath, bitsPerKey, prefixExtractor,
+            expectedEntrysC, entrysToWrite);
+    }
 
-                if (entryBytesC > memBufferToWrite.capacity()) {
-                    memBufferToWrite = ByteBuffer.allocate(entryBytesC);
+    /**
+     * Deletes files of table, when table and all views of its files are unreachable. Java unmaps files only
+     * when buffers are collected, so views of removed table stay readable, while they are used.
+     * Files are given by caller, because they may be renamed after load.
+     */
+    public void deleteWhenUnreachable(Path indexPath, Path memoryPath) {
+        FILES_CLEANER.register(indexBB, () -> deleteFile(indexPath));
+        MappedByteBuffer[] memorySegments = memorySegments();
+        if (memorySegments.length == 0) {
+            deleteFile(memoryPath);
+            return;
+        }
+        // Memory file is deleted after the last of its segments
+        AtomicInteger reachableSegments = new AtomicInteger(memorySegments.length);
+        for (MappedByteBuffer segment : memorySegments) {
+            FILES_CLEANER.register(segment, () -> {
+                if (reachableSegments.decrementAndGet() == 0) {
+                    deleteFile(memoryPath);
                 }
-                persistEntry(entry, memBufferToWrite);
-                memChannel.write(memBufferToWrite);
+            });
+        }
+    }
 
-                memBufferToWrite.clear();
-                bytesWritten += entryBytesC;
+    /**
+     * Gives buffers, which map memory file.
+     */
+    abstract MappedByteBuffer[] memorySegments();
 
-                entrysC++;
-            }
-            indBufferToWrite.putInt(entrysC);
-            indBufferToWrite.flip();
-            indChannel.write(indBufferToWrite);
+    private static void deleteFile(Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            // File is left and deleted on next load of storage
         }
     }
 
-    public Entry<ByteBuffer> get(ByteBuffer key) {
-        int position = getGreaterOrEqual(entrysC - 1, key);
-        Entry<ByteBuffer> res = readEntry(position);
-        return res.key().equals(key) ? res : null;
+    /**
+     * Gives number of table files.
+     */
+    public int getStoragePartN() {
+        return storagePartN;
     }
 
-    public IndexedPeekIterator get(ByteBuffer from, ByteBuffer to) {
-        return new IndexedPeekIterator(new StoragePartIterator(from, to), storagePartN);
+    public boolean hasBloomFilter() {
+        return bloomFilter != null;
     }
 
     /**
-     * Count byte size of entry, that we want to write in file.
+     * Checks key with bloom filter, without search in table.
      *
-     * @param entry that we want to save
-     * @return count of bytes
+     * @return false if table surely has no entry with given key
      */
-    public static int getPersEntryByteSize(Entry<ByteBuffer> entry) {
-        int keyLength = entry.key().capacity();
-        int valueLength = entry.value() == null ? 0 : entry.value().capacity();
+    public boolean mightContain(ByteBuffer key) {
+        return bloomFilter == null || bloomFilter.mightContain(key);
+    }
 
-        return 2 * Integer.BYTES + keyLength + valueLength;
+    /**
+     * Checks prefix with prefix filter, without search in table.
+     *
+     * @param prefix prefix, given by prefix extractor of dao
+     * @return false if table surely has no keys with given prefix
+     */
+    public boolean mightContainPrefix(ByteBuffer prefix) {
+        return prefixFilter == null || prefixFilter.mightContain(prefix);
     }
 
-    private int getGreaterOrEqual(int inLast, ByteBuffer key) {
-        if (key == null) {
-            return 0;
-        }
+    public boolean hasPrefixFilter() {
+        return prefixFilter != null;
+    }
 
-        int first = 0;
-        int last = inLast;
-        int position = (first + last) / 2;
-        Entry<ByteBuffer> curEntry = readEntry(position);
+    /**
+     * Checks key with fence keys of table, without search in table.
+     *
+     * @return false if key is out of range of table keys
+     */
+    public boolean mayContainKey(ByteBuffer key) {
+        ByteBuffer minKey = minKey();
+        return minKey != null && minKey.compareTo(key) <= 0 && maxKey().compareTo(key) >= 0;
+    }
 
-        while (!curEntry.key().equals(key) && first <= last) {
-            if (curEntry.key().compareTo(key) > 0) {
-                last = position - 1;
-            } else {
-                first = position + 1;
-            }
-            position = (first + last) / 2;
-            curEntry = readEntry(position);
+    /**
+     * Checks range with fence keys of table.
+     *
+     * @param from lower bound (inclusive), null means no bound
+     * @param to   upper bound (exclusive), null means no bound
+     * @return false if table has no keys in range
+     */
+    public boolean mayContainRange(ByteBuffer from, ByteBuffer to) {
+        ByteBuffer minKey = minKey();
+        if (minKey == null) {
+            return false;
         }
+        return (to == null || minKey.compareTo(to) < 0) && (from == null || maxKey().compareTo(from) >= 0);
+    }
 
-        // Граничные случаи
-        if (position + 1 < entrysC && curEntry.key().compareTo(key) < 0) {
-            position++;
-        }
+    /**
+     * Gives the least key of table as read only view of file, null if table is empty.
+     */
+    abstract ByteBuffer minKey();
 
-        return position;
-    }
+    /**
+     * Gives the greatest key of table as read only view of file, null if table is empty.
+     */
+    abstract ByteBuffer maxKey();
 
-    private Entry<ByteBuffer> readEntry(int entryN) {
-        int ind = indexBB.getInt(entryN * Integer.BYTES);
-        var key = readBytes(ind);
-        if (key.isEmpty()) {
-            throw new RuntimeException("Entry without key.");
-        }
-        ind += Integer.BYTES + key.get().length;
-        var value = readBytes(ind);
-        return new BaseEntry<>(ByteBuffer.wrap(key.get()), value.map(ByteBuffer::wrap).orElse(null));
+    public abstract Entry<ByteBuffer> get(ByteBuffer key);
+
+    /**
+     * Gives search for increasing keys. Default search finds every key from the beginning of table.
+     */
+    public ForwardSearch forwardSearch() {
+        return this::get;
     }
 
-    private Optional<byte[]> readBytes(int ind) {
-        int currInd = ind;
-        int len = memoryBB.getInt(currInd);
-        if (len == LEN_FOR_NULL) {
-            return Optional.empty();
-        }
-        currInd += Integer.BYTES;
-        byte[] bytes = new byte[len];
-        memoryBB.get(currInd, bytes);
-        return Optional.of(bytes);
+    /**
+     * Gives entrys with keys between from (inclusive) and to (exclusive), null bound means no bound.
+     */
+    abstract SeekableIterator<ByteBuffer, Entry<ByteBuffer>> iterator(ByteBuffer from, ByteBuffer to);
+
+    /**
+     * Gives entrys of {@link #iterator} as {@link LazyEntry}, values are not read until they are needed.
+     * Block cache is not used, so scans of keys don't read values in cache.
+     */
+    abstract SeekableIterator<ByteBuffer, Entry<ByteBuffer>> lazyIterator(ByteBuffer from, ByteBuffer to);
+
+    /**
+     * Gives entrys of {@link #iterator} in reverse order, the greatest key is the first.
+     */
+    abstract Iterator<Entry<ByteBuffer>> descendingIterator(ByteBuffer from, ByteBuffer to);
+
+    /**
+     * Verifies checksums of the whole table.
+     *
+     * @return count of blocks with wrong checksum
+     */
+    abstract int scrub();
+
+    /**
+     * Gives keys of range, that are evenly spread over table, without reading of entrys.
+     *
+     * @param maxSamples limit of count of keys
+     * @return sorted keys as read only views of files
+     */
+    abstract List<ByteBuffer> sampleKeys(ByteBuffer from, ByteBuffer to, int maxSamples);
+
+    /**
+     * Estimates count of entrys (with tombstones) in range by index, without reading of entrys.
+     */
+    abstract long estimateCount(ByteBuffer from, ByteBuffer to);
+
+    /**
+     * Estimates size of entrys of range in memory file by index, without reading of entrys.
+     */
+    abstract long estimateBytes(ByteBuffer from, ByteBuffer to);
+
+    /**
+     * Count byte size of entry, that we want to write in file.
+     *
+     * @param entry that we want to save
+     * @return count of bytes
+     */
+    public static int getPersEntryByteSize(Entry<ByteBuffer> entry) {
+        int keyLength = entry.key().remaining();
+        int valueLength = entry.value() == null ? 0 : entry.value().remaining();
+
+        return 2 * Integer.BYTES + keyLength + valueLength;
     }
 
     /**
-     * Saves entry to byteBuffer.
+     * Saves entry to byteBuffer starting from its current position.
      *
      * @param entry         that we want to save in bufferToWrite
      * @param bufferToWrite buffer where we want to persist entry
      */
-    private static void persistEntry(Entry<ByteBuffer> entry, ByteBuffer bufferToWrite) {
-        bufferToWrite.putInt(entry.key().array().length);
-        bufferToWrite.put(entry.key().array());
+    public static void persistEntry(Entry<ByteBuffer> entry, ByteBuffer bufferToWrite) {
+        // Key and value may be views of off heap memory, so they are copied without array()
+        bufferToWrite.putInt(entry.key().remaining());
+        bufferToWrite.put(entry.key().duplicate());
 
         if (entry.value() == null) {
             bufferToWrite.putInt(SSTable.LEN_FOR_NULL);
         } else {
-            bufferToWrite.putInt(entry.value().array().length);
-            bufferToWrite.put(entry.value().array());
+            bufferToWrite.putInt(entry.value().remaining());
+            bufferToWrite.put(entry.value().duplicate());
         }
-
-        bufferToWrite.flip();
     }
 
-    private static MappedByteBuffer mapFile(Path filePath, int mapSize) throws IOException {
-        MappedByteBuffer mappedFile;
-        try (
-            FileChannel fileChannel = (FileChannel) Files.newByteChannel(filePath,
-                EnumSet.of(StandardOpenOption.READ, StandardOpenOption.WRITE))
-        ) {
-            mappedFile = fileChannel.map(FileChannel.MapMode.READ_ONLY, 0, mapSize);
+    /**
+     * Reads key or value of entry from memory file.
+     *
+     * @param zeroCopyReads bytes are given as read only view of file, not as copy in heap
+     */
+    static ByteBuffer readBuffer(ByteBuffer memoryBB, int position, int len, boolean zeroCopyReads) {
+        if (zeroCopyReads) {
+            return memoryBB.slice(position, len);
         }
+        byte[] value = new byte[len];
+        memoryBB.get(position, value);
+        return ByteBuffer.wrap(value);
+    }
 
-        return mappedFile;
+    /**
+     * Compares len bytes of buffer from given index with key in the same order as {@link ByteBuffer#compareTo}.
+     * Nothing is copied, positions of buffers are not changed.
+     */
+    static int compareKey(ByteBuffer buffer, int from, int len, ByteBuffer key) {
+        int keyFrom = key.position();
+        int commonLen = Math.min(len, key.remaining());
+
+        // Compare by 8 bytes, until first difference. Buffers are big endian, so first byte is the highest.
+        int longsLen = buffer.order() == ByteOrder.BIG_ENDIAN && key.order() == ByteOrder.BIG_ENDIAN ? commonLen : 0;
+        int i = 0;
+        for (; i + Long.BYTES <= longsLen; i += Long.BYTES) {
+            long diff = buffer.getLong(from + i) ^ key.getLong(keyFrom + i);
+            if (diff != 0) {
+                i += Long.numberOfLeadingZeros(diff) / Byte.SIZE;
+                return Byte.compare(buffer.get(from + i), key.get(keyFrom + i));
+            }
+        }
+        for (; i < commonLen; i++) {
+            int cmp = Byte.compare(buffer.get(from + i), key.get(keyFrom + i));
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return len - key.remaining();
     }
 
-    private class StoragePartIterator implements Iterator<Entry<ByteBuffer>> {
-        private int nextPos;
-        private final ByteBuffer to;
-        private Entry<ByteBuffer> next;
+    private static MappedByteBuffer mapFile(Path filePath, long mapSize) throws IOException {
+        if (mapSize > Integer.MAX_VALUE) {
+            throw new IllegalStateException("File " + filePath + " can't be mapped by one buffer.");
+        }
+        return mapSegments(filePath, new long[] {0}, mapSize)[0];
+    }
 
-        public StoragePartIterator(ByteBuffer from, ByteBuffer to) {
-            this.to = to;
-            nextPos = getGreaterOrEqual(entrysC - 1, from);
-            next = readEntry(nextPos);
+    /**
+     * Forces entries of directory, so files, that are created or renamed in it, are not lost on power loss.
+     */
+    static void forceDirectory(Path directory) throws IOException {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        }
+    }
 
-            if (from != null && next.key().compareTo(from) < 0) {
-                next = null;
+    /**
+     * Maps file by segments [segmentStarts[i], segmentStarts[i + 1]), the last segment ends with mapSize.
+     * Every segment should be less than 2 GB.
+     */
+    static MappedByteBuffer[] mapSegments(Path filePath, long[] segmentStarts, long mapSize) throws IOException {
+        MappedByteBuffer[] segments = new MappedByteBuffer[segmentStarts.length];
+        try (
+            FileChannel fileChannel = (FileChannel) Files.newByteChannel(filePath,
+                EnumSet.of(StandardOpenOption.READ, StandardOpenOption.WRITE))
+        ) {
+            for (int i = 0; i < segments.length; i++) {
+                long segmentEnd = i + 1 < segments.length ? segmentStarts[i + 1] : mapSize;
+                segments[i] = fileChannel.map(
+                    FileChannel.MapMode.READ_ONLY, segmentStarts[i], segmentEnd - segmentStarts[i]);
             }
         }
+        return segments;
+    }
 
-        @Override
-        public boolean hasNext() {
-            return next != null && nextPos < entrysC && (to == null || next.key().compareTo(to) < 0);
+    /**
+     * Finds first position in [from, end), which key is not less than searched one, keys of positions are sorted.
+     * Positions from, from + 1, from + 2, from + 4, ... are probed before binary search,
+     * so search costs log of distance to found position instead of log of end - from.
+     *
+     * @param isLess checks, that key of position is less than searched one
+     * @return found position, end if there is no such position
+     */
+    static int gallop(IntPredicate isLess, int from, int end) {
+        int first = from;
+        int bound = from;
+        long step = 1;
+        while (bound < end && isLess.test(bound)) {
+            first = bound + 1;
+            bound = (int) Math.min(end, from + step);
+            step *= 2;
         }
 
-        @Override
-        public Entry<ByteBuffer> next() {
-            if (!hasNext()) {
-                throw new NoSuchElementException();
-            }
-
-            Entry<ByteBuffer> current = next;
-            nextPos++;
-            if (nextPos < entrysC) {
-                next = readEntry(nextPos);
+        int last = bound;
+        while (first < last) {
+            int position = (first + last) >>> 1;
+            if (isLess.test(position)) {
+                first = position + 1;
+            } else {
+                last = position;
             }
-            return current;
         }
+        return first;
+    }
+
+    /**
+     * Search of increasing keys, every key is searched from position of previous one.
+     */
+    public interface ForwardSearch {
+        Entry<ByteBuffer> get(ByteBuffer key);
     }
 }
@@ -1,61 +1,193 @@
 package ru.leo.lsm.internal;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.nio.ByteBuffer;
+import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
-import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
-import java.util.PriorityQueue;
-import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Supplier;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.concurrent.locks.ReentrantLock;
+import ru.leo.lsm.Config;
 import ru.leo.lsm.Entry;
+import ru.leo.lsm.PrefixExtractor;
+import ru.leo.lsm.SeekableIterator;
+import ru.leo.lsm.internal.cache.BlockCache;
+import ru.leo.lsm.internal.cache.BlockCacheStats;
 import ru.leo.lsm.internal.iterator.IndexedPeekIterator;
 import ru.leo.lsm.internal.iterator.TablesIterator;
+import ru.leo.lsm.internal.memtable.MemTable;
 
 public final class SSTables implements AutoCloseable {
     private static final String MEM_FILENAME = "daoMem.bin";
     private static final String IND_FILENAME = "daoIndex.bin";
+    private static final String BLOOM_FILENAME = "daoBloom.bin";
+    private static final String PREFIX_BLOOM_FILENAME = "daoPrefixBloom.bin";
+    private static final String MANIFEST_FILENAME = "daoManifest.bin";
+    private static final List<String> TABLE_FILENAMES =
+        List.of(MEM_FILENAME, IND_FILENAME, BLOOM_FILENAME, PREFIX_BLOOM_FILENAME);
     private static final String COMPACTED_PREFIX = "compacted_";
     private static final String COMPACTED_IND_FILE = COMPACTED_PREFIX + IND_FILENAME;
     private static final String COMPACTED_MEM_FILE = COMPACTED_PREFIX + MEM_FILENAME;
+    private static final String COMPACTED_BLOOM_FILE = COMPACTED_PREFIX + BLOOM_FILENAME;
+    private static final String COMPACTED_PREFIX_BLOOM_FILE = COMPACTED_PREFIX + PREFIX_BLOOM_FILENAME;
     private static final String TMP_PREFIX = "tmp_";
+    // Files of compacted tables, that may be still mapped by readers
+    private static final String TRASH_PREFIX = "trash_";
+    // Keys, that are sampled from one table per wanted partition of range
+    private static final int SAMPLES_PER_PARTITION = 16;
+    // It is held only to change levels, so flushes are not blocked by writing of compaction output
     private final ReentrantLock flushCompactLock = new ReentrantLock();
-    // Order is important, fresh in begin
-    private List<SSTable> storageParts;
+    // Only one compaction runs at a time
+    private final ReentrantLock compactionLock = new ReentrantLock();
+    private final LongAdder bloomFilterHits = new LongAdder();
+    private final LongAdder bloomFalsePositives = new LongAdder();
+    private final LongAdder prefixFilterHits = new LongAdder();
+    private final LongAdder scrubs = new LongAdder();
+    private volatile long scrubCorruptedBlocks;
+    // Snapshot is never changed, it is replaced, so readers iterate it without locks
+    private volatile TablesSnapshot tables = TablesSnapshot.unleveled(List.of());
+    // Guarded by flushCompactLock. Level 0 has flushed tables, fresh first, they may overlap.
+    // Tables of other levels don't overlap and are sorted by keys.
+    private final List<List<SSTable>> levels = new ArrayList<>();
+    // Guarded by compactionLock. The greatest keys of the last compacted tables of levels,
+    // tables of level are compacted in turn from them.
+    private final Map<Integer, ByteBuffer> compactPointers = new HashMap<>();
+    private final AtomicInteger nextTableN;
     private final Path location;
+    private final int bloomBitsPerKey;
+    // Null if cache is disabled
+    private final BlockCache<DecodedBlock> blockCache;
+    private final boolean zeroCopyReads;
+    private final Config.ChecksumVerification checksumVerification;
+    // Null if prefix filters are disabled
+    private final PrefixExtractor prefixExtractor;
+    private final int level0Tables;
+    private final long levelTableBytes;
+    private final int levelFanout;
+    private final Config.CompactionStyle compactionStyle;
+    private final int minMergeWidth;
+    private final int maxMergeWidth;
+    private final double bucketRatio;
+    private final int subcompactionsC;
+    // Null if compaction merges all keys in one thread
+    private final ExecutorService subcompactionExecutor;
+    // Guarded by compactionLock
+    private long trashFilesC;
+    // Runs, when compaction has picked tables and starts to write output, null in production
+    private final Runnable beforeCompactionOutput;
 
-    private SSTables(List<SSTable> storageParts, Path location) {
-        this.storageParts = storageParts;
-        this.location = location;
+    private SSTables(Config config, BlockCache<DecodedBlock> blockCache, int nextTableN,
+        Runnable beforeCompactionOutput) {
+        this.location = config.basePath();
+        this.beforeCompactionOutput = beforeCompactionOutput;
+        this.bloomBitsPerKey = config.bloomBitsPerKey();
+        this.blockCache = blockCache;
+        this.zeroCopyReads = config.zeroCopyReads();
+        this.checksumVerification = config.checksumVerification();
+        this.prefixExtractor = config.prefixExtractor();
+        this.level0Tables = config.level0Tables();
+        this.levelTableBytes = config.levelTableBytes();
+        this.levelFanout = config.levelFanout();
+        this.compactionStyle = config.compactionStyle();
+        this.minMergeWidth = config.minMergeWidth();
+        this.maxMergeWidth = config.maxMergeWidth();
+        this.bucketRatio = config.bucketRatio();
+        this.nextTableN = new AtomicInteger(nextTableN);
+        this.subcompactionsC = config.subcompactions();
+        this.subcompactionExecutor = subcompactionsC == 1 ? null : Executors.newFixedThreadPool(subcompactionsC);
     }
 
-    public static SSTables load(Path location) throws IOException {
+    public static SSTables load(Config config) throws IOException {
+        return load(config, null);
+    }
+
+    /**
+     * Loads tables with hook, that runs before compaction writes output. Tests stop compaction there.
+     */
+    static SSTables load(Config config, Runnable beforeCompactionOutput) throws IOException {
+        Path location = config.basePath();
+        Path manifestPath = location.resolve(MANIFEST_FILENAME);
+        // Manifest is saved on the first change of tables
+        Manifest manifest = Files.exists(manifestPath) ? Manifest.read(manifestPath) : loadUnleveled(location);
+        deleteUnlisted(location, manifest);
+
+        BlockCache<DecodedBlock> blockCache = config.blockCacheBytes() == 0 ? null : new BlockCache<>(
+            config.blockCacheBytes(), BlockSSTable.BLOCK_SIZE, config.blockCacheEviction(), DecodedBlock::byteSize);
+        SSTables ssTables = new SSTables(config, blockCache, manifest.nextTableN(), beforeCompactionOutput);
+        for (List<Integer> levelTables : manifest.levels()) {
+            List<SSTable> level = new ArrayList<>(levelTables.size());
+            for (int tableN : levelTables) {
+                level.add(ssTables.loadTable(tableN));
+            }
+            ssTables.levels.add(level);
+        }
+        if (ssTables.levels.isEmpty()) {
+            ssTables.levels.add(new ArrayList<>());
+        }
+        ssTables.tables = ssTables.snapshotLevels();
+        return ssTables;
+    }
+
+    /**
+     * Gives manifest of storage of previous versions: tables 0, 1, ... without manifest are put in level 0.
+     */
+    private static Manifest loadUnleveled(Path location) throws IOException {
         Path compactedIndFile = location.resolve(COMPACTED_IND_FILE);
         Path compactedMemFile = location.resolve(COMPACTED_MEM_FILE);
         if (Files.exists(compactedIndFile) || Files.exists(compactedMemFile)) {
             finishCompact(location, compactedIndFile, compactedMemFile);
         }
 
-        ArrayList<SSTable> storageParts = new ArrayList<>();
-        for (int i = 0; i < Integer.MAX_VALUE; i++) {
-            Path nextIndFile = getIndexFilePath(location, i);
-            Path nextMemFile = getMemFilePath(location, i);
-            try {
-                storageParts.add(SSTable.load(nextIndFile, nextMemFile, i));
-            } catch (NoSuchFileException e) {
-                break;
-            }
+        int tablesC = 0;
+        while (Files.exists(getIndexFilePath(location, tablesC)) && Files.exists(getMemFilePath(location, tablesC))) {
+            tablesC++;
+        }
+        // Fresh is the first
+        List<Integer> level0 = new ArrayList<>(tablesC);
+        for (int i = tablesC - 1; i >= 0; i--) {
+            level0.add(i);
         }
+        return new Manifest(tablesC, List.of(level0));
+    }
 
-        // Reverse collection, so fresh is the first
-        Collections.reverse(storageParts);
-        return new SSTables(storageParts, location);
+    /**
+     * Deletes files of compacted tables and of tables, that were not added in manifest before crash.
+     * Nothing of previous run is mapped now.
+     */
+    private static void deleteUnlisted(Path location, Manifest manifest) throws IOException {
+        Set<Integer> listed = new HashSet<>();
+        manifest.levels().forEach(listed::addAll);
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(location)) {
+            for (Path file : files) {
+                String fileName = file.getFileName().toString();
+                int digitsC = 0;
+                while (digitsC < fileName.length() && Character.isDigit(fileName.charAt(digitsC))) {
+                    digitsC++;
+                }
+                boolean isUnlistedTable = digitsC > 0 && TABLE_FILENAMES.contains(fileName.substring(digitsC))
+                    && !listed.contains(Integer.parseInt(fileName.substring(0, digitsC)));
+                if (isUnlistedTable || fileName.startsWith(TRASH_PREFIX)) {
+                    Files.delete(file);
+                }
+            }
+        }
     }
 
     /**
@@ -65,101 +197,679 @@ public final class SSTables implements AutoCloseable {
      * @return entry with the same key or null if there is no entry with the same key
      */
     public Entry<ByteBuffer> findEntry(ByteBuffer key) {
-        Entry<ByteBuffer> res = null;
-        for (SSTable storagePart : storageParts) {
-            res = storagePart.get(key);
-            if (res != null) {
-                break;
+        TablesSnapshot snapshot = tables;
+        for (int level = 0; level < snapshot.levelEnds().length; level++) {
+            for (int i = snapshot.firstInRange(level, key); i < snapshot.levelEnds()[level]; i++) {
+                SSTable storagePart = snapshot.parts().get(i);
+                Entry<ByteBuffer> res = probe(storagePart, storagePart::get, key);
+                if (res != null) {
+                    return res;
+                }
+                if (level > 0) {
+                    // Only one table of sorted level may have key
+                    break;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Finds entrys of many keys. Every table is searched once for all keys, that are not found in fresher tables.
+     *
+     * @param keys  sorted keys without duplicates
+     * @param found entrys of keys with the same indexes, null for keys, that are not found yet
+     */
+    public void findEntrys(List<ByteBuffer> keys, List<Entry<ByteBuffer>> found) {
+        for (SSTable storagePart : tables.parts()) {
+            SSTable.ForwardSearch search = storagePart.forwardSearch();
+            for (int i = 0; i < keys.size(); i++) {
+                if (found.get(i) == null) {
+                    found.set(i, probe(storagePart, search, keys.get(i)));
+                }
             }
         }
+    }
+
+    private Entry<ByteBuffer> probe(SSTable storagePart, SSTable.ForwardSearch search, ByteBuffer key) {
+        if (!storagePart.mayContainKey(key)) {
+            return null;
+        }
+        if (!storagePart.mightContain(key)) {
+            bloomFilterHits.increment();
+            return null;
+        }
 
+        Entry<ByteBuffer> res = search.get(key);
+        if (res == null && storagePart.hasBloomFilter()) {
+            bloomFalsePositives.increment();
+        }
         return res;
     }
 
+    /**
+     * Sums estimated counts of entrys in range of all tables. Key, that is in several tables, is counted
+     * in every table, tombstones are counted too.
+     */
+    public long estimateCount(ByteBuffer from, ByteBuffer to) {
+        long count = 0;
+        for (SSTable storagePart : tables.parts()) {
+            if (storagePart.mayContainRange(from, to)) {
+                count += storagePart.estimateCount(from, to);
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Sums estimated sizes of range in files of all tables, the same way as {@link #estimateCount}.
+     */
+    public long estimateBytes(ByteBuffer from, ByteBuffer to) {
+        long bytes = 0;
+        for (SSTable storagePart : tables.parts()) {
+            if (storagePart.mayContainRange(from, to)) {
+                bytes += storagePart.estimateBytes(from, to);
+            }
+        }
+        return bytes;
+    }
+
+    public BloomFilterStats getBloomFilterStats() {
+        return new BloomFilterStats(bloomFilterHits.sum(), bloomFalsePositives.sum(), prefixFilterHits.sum());
+    }
+
+    public ChecksumStats getChecksumStats() {
+        return new ChecksumStats(scrubs.sum(), scrubCorruptedBlocks);
+    }
+
+    /**
+     * Verifies checksums of all blocks of all tables. Scrub is stopped, if thread is interrupted.
+     */
+    public void scrub() {
+        long corruptedC = 0;
+        for (SSTable storagePart : tables.parts()) {
+            if (Thread.currentThread().isInterrupted()) {
+                return;
+            }
+            corruptedC += storagePart.scrub();
+        }
+        scrubCorruptedBlocks = corruptedC;
+        scrubs.increment();
+    }
+
+    public BlockCacheStats getBlockCacheStats() {
+        return blockCache == null ? new BlockCacheStats(0, 0, 0, 0) : blockCache.getStats();
+    }
+
     /**
      * Gives iterator for given range.
      *
      * @param memTables attention: fresh memtables should be on first positions. Order is important
      */
-    @SafeVarargs
-    public final Iterator<Entry<ByteBuffer>> getMergedEntrys(
-        ByteBuffer from, ByteBuffer to, ConcurrentNavigableMap<ByteBuffer, Entry<ByteBuffer>>... memTables) {
-        PriorityQueue<IndexedPeekIterator> binaryHeap = new PriorityQueue<>(
-            Comparator.comparing(it -> it.peek().key()));
+    public SeekableIterator<ByteBuffer, Entry<ByteBuffer>> getMergedEntrys(
+        ByteBuffer from, ByteBuffer to, List<MemTable> memTables) {
+        return getMergedEntrys(tables, from, to, memTables, null, Scan.FORWARD, false);
+    }
+
+    /**
+     * Gives iterator for given range in descending order. Duplicates and tombstones are resolved
+     * the same way as in {@link #getMergedEntrys(ByteBuffer, ByteBuffer, List)}.
+     *
+     * @param memTables attention: fresh memtables should be on first positions. Order is important
+     */
+    public Iterator<Entry<ByteBuffer>> getDescendingEntrys(
+        ByteBuffer from, ByteBuffer to, List<MemTable> memTables) {
+        return getMergedEntrys(tables, from, to, memTables, null, Scan.DESCENDING, false);
+    }
+
+    /**
+     * Gives iterator for given range, that reads values of tables only when they are needed.
+     * It is used for scans of keys, block cache is not filled by them.
+     *
+     * @param memTables attention: fresh memtables should be on first positions. Order is important
+     */
+    public Iterator<Entry<ByteBuffer>> getLazyEntrys(ByteBuffer from, ByteBuffer to, List<MemTable> memTables) {
+        return getMergedEntrys(tables, from, to, memTables, null, Scan.LAZY, false);
+    }
 
-        for (SSTable storagePart : storageParts) {
-            IndexedPeekIterator peekIterator = storagePart.get(from, to);
-            if (peekIterator.peek() != null) {
-                binaryHeap.add(peekIterator);
+    /**
+     * Gives iterator of keys with given prefix. Tables are skipped by prefix filters, if prefix has
+     * prefix of extractor.
+     *
+     * @param to        the least key greater than all keys with prefix, null if there is no such key
+     * @param memTables attention: fresh memtables should be on first positions. Order is important
+     */
+    public Iterator<Entry<ByteBuffer>> getPrefixEntrys(ByteBuffer prefix, ByteBuffer to, List<MemTable> memTables) {
+        ByteBuffer filterPrefix = prefixExtractor == null ? null : prefixExtractor.prefix(prefix);
+        return getMergedEntrys(tables, prefix, to, memTables, filterPrefix, Scan.FORWARD, false);
+    }
+
+    /**
+     * Splits range in partitions by keys, that are sampled from tables, and gives merge of every partition.
+     * Partitions are merged independently, all of them read the same tables.
+     *
+     * @param count     wanted count of partitions, it is less if tables have not enough keys in range
+     * @param memTables attention: fresh memtables should be on first positions. Order is important
+     * @return merges of partitions in order of keys
+     */
+    public List<Iterator<Entry<ByteBuffer>>> getPartitions(
+        ByteBuffer from, ByteBuffer to, int count, List<MemTable> memTables) {
+        TablesSnapshot snapshot = tables;
+        List<Iterator<Entry<ByteBuffer>>> partitions = new ArrayList<>(count);
+        ByteBuffer lower = from;
+        for (ByteBuffer split : splitKeys(snapshot.parts(), from, to, count)) {
+            partitions.add(getMergedEntrys(snapshot, lower, split, memTables, null, Scan.FORWARD, false));
+            lower = split;
+        }
+        partitions.add(getMergedEntrys(snapshot, lower, to, memTables, null, Scan.FORWARD, false));
+        return partitions;
+    }
+
+    /**
+     * Samples keys of range from tables and gives at most count - 1 increasing keys, that split range
+     * in parts with about the same count of entrys.
+     */
+    private static List<ByteBuffer> splitKeys(List<SSTable> parts, ByteBuffer from, ByteBuffer to, int count) {
+        List<ByteBuffer> samples = new ArrayList<>();
+        for (SSTable part : parts) {
+            if (part.mayContainRange(from, to)) {
+                samples.addAll(part.sampleKeys(from, to, count * SAMPLES_PER_PARTITION));
             }
         }
+        samples.sort(null);
 
-        int priority = 0;
-        for (var memTable : memTables) {
-            if (memTable == null) {
+        List<ByteBuffer> splits = new ArrayList<>(count - 1);
+        ByteBuffer lower = from;
+        for (int i = 1; i < count && !samples.isEmpty(); i++) {
+            // Quantiles of samples
+            ByteBuffer split = samples.get((int) ((long) i * samples.size() / count));
+            if (lower != null && split.compareTo(lower) <= 0) {
                 continue;
             }
+            splits.add(split);
+            lower = split;
+        }
+        return splits;
+    }
+
+    private TablesIterator getMergedEntrys(
+        TablesSnapshot snapshot,
+        ByteBuffer from,
+        ByteBuffer to,
+        List<MemTable> memTables,
+        ByteBuffer filterPrefix,
+        Scan scan,
+        boolean withTombstones
+    ) {
+        List<SSTable> parts = snapshot.parts();
+        List<IndexedPeekIterator> sources = new ArrayList<>(memTables.size());
+
+        for (int level = 0; level < snapshot.levelEnds().length; level++) {
+            for (int i = snapshot.firstInRange(level, from); i < snapshot.levelEnds()[level]; i++) {
+                SSTable storagePart = parts.get(i);
+                if (!storagePart.mayContainRange(from, to)) {
+                    if (level > 0) {
+                        // The next tables of sorted level start after range
+                        break;
+                    }
+                    continue;
+                }
+                if (filterPrefix != null && !storagePart.mightContainPrefix(filterPrefix)) {
+                    prefixFilterHits.increment();
+                    continue;
+                }
+                Iterator<Entry<ByteBuffer>> iterator = switch (scan) {
+                    case FORWARD -> storagePart.iterator(from, to);
+                    case DESCENDING -> storagePart.descendingIterator(from, to);
+                    case LAZY -> storagePart.lazyIterator(from, to);
+                };
+                // Parts are ordered from fresh to old, numbers of files are not, because compacted tables get new ones
+                IndexedPeekIterator peekIterator = new IndexedPeekIterator(iterator, parts.size() - i);
+                if (peekIterator.peek() != null) {
+                    sources.add(peekIterator);
+                }
+            }
+        }
 
-            IndexedPeekIterator localIter = new IndexedPeekIterator(memTable.values().iterator(),
+        int priority = 0;
+        for (MemTable memTable : memTables) {
+            IndexedPeekIterator localIter = new IndexedPeekIterator(
+                scan == Scan.DESCENDING ? memTable.getDescending(from, to) : memTable.get(from, to),
                 Integer.MAX_VALUE - priority);
             if (localIter.peek() != null) {
-                binaryHeap.add(localIter);
+                sources.add(localIter);
             }
             priority++;
         }
 
-        return new TablesIterator(binaryHeap);
+        return new TablesIterator(
+            sources, scan == Scan.DESCENDING ? Comparator.reverseOrder() : Comparator.naturalOrder(), withTombstones);
     }
 
-    public void save(ConcurrentNavigableMap<ByteBuffer, Entry<ByteBuffer>> entrys) throws IOException {
+    public void save(MemTable entrys) throws IOException {
         if (entrys.isEmpty()) {
             return;
         }
 
+        SSTable flushed = saveTable(entrys.get(null, null), entrys.upsertsCount());
         flushCompactLock.lock();
         try {
-            Path indPath = getIndexFilePath(storageParts.size());
-            Path memPath = getMemFilePath(storageParts.size());
-            save(indPath, memPath, entrys.values().iterator());
             // This part of mem is most fresh, so add in begin
-            storageParts.addFirst(
-                SSTable.load(
-                    indPath,
-                    memPath,
-                    storageParts.size()
-                )
-            );
+            levels.get(0).add(0, flushed);
+            publishLevels();
         } finally {
             flushCompactLock.unlock();
         }
     }
 
+    /**
+     * Compacts tables by request of user. Manual style merges all tables in one table of level 1 without tombstones,
+     * size-tiered compaction merges all tables of level 0 in one, leveled compaction merges all tables of level 0
+     * in level 1 and then every overfilled level in the next one.
+     */
     public void compact() throws IOException {
+        compactionLock.lock();
+        try {
+            if (compactionStyle == Config.CompactionStyle.MANUAL) {
+                CompactionStep step = pickLocked(this::pickAll);
+                if (step != null) {
+                    compact(step);
+                }
+                return;
+            }
+            if (compactionStyle == Config.CompactionStyle.SIZE_TIERED) {
+                CompactionStep step = pickLocked(() -> levels.get(0).size() > 1
+                    ? new CompactionStep(0, List.copyOf(levels.get(0)), 0, List.of()) : null);
+                if (step != null) {
+                    compact(step);
+                }
+                return;
+            }
+            CompactionStep step = pickLocked(() -> pickCompaction(true));
+            for (; step != null; step = pickLocked(() -> pickCompaction(false))) {
+                compact(step);
+            }
+        } finally {
+            compactionLock.unlock();
+        }
+    }
+
+    /**
+     * Compacts tables, while compaction style finds them worth of it. Nothing is done for manual style.
+     */
+    public void compactAutomatically() throws IOException {
+        compactionLock.lock();
+        try {
+            while (true) {
+                CompactionStep step = pickLocked(() -> switch (compactionStyle) {
+                    case MANUAL -> null;
+                    case LEVELED -> pickCompaction(false);
+                    case SIZE_TIERED -> pickSizeTiered();
+                });
+                if (step == null) {
+                    return;
+                }
+                compact(step);
+            }
+        } finally {
+            compactionLock.unlock();
+        }
+    }
+
+    private CompactionStep pickLocked(Supplier<CompactionStep> pick) {
+        flushCompactLock.lock();
+        try {
+            return pick.get();
+        } finally {
+            flushCompactLock.unlock();
+        }
+    }
+
+    /**
+     * Picks all tables: tables of level 0 are merged with tables of all other levels in level 1.
+     *
+     * @return null if there is only one table
+     */
+    private CompactionStep pickAll() {
+        List<SSTable> deeperTables = new ArrayList<>();
+        for (int level = 1; level < levels.size(); level++) {
+            // Deeper levels are older, so order of merge priority is kept
+            deeperTables.addAll(levels.get(level));
+        }
+        if (levels.get(0).size() + deeperTables.size() <= 1) {
+            return null;
+        }
+        return new CompactionStep(0, List.copyOf(levels.get(0)), 1, deeperTables);
+    }
+
+    /**
+     * Splits level 0 in buckets of neighbour tables with similar sizes and picks the smallest bucket,
+     * that has at least minMergeWidth tables. Only neighbours are merged, so order of freshness is kept.
+     *
+     * @return null if there is no such bucket
+     */
+    private CompactionStep pickSizeTiered() {
+        List<SSTable> level0 = levels.get(0);
+        List<SSTable> picked = null;
+        double pickedAverage = 0;
+        int bucketStart = 0;
+        while (bucketStart < level0.size()) {
+            double bucketBytes = level0.get(bucketStart).estimateBytes(null, null);
+            int bucketEnd = bucketStart + 1;
+            while (bucketEnd < level0.size() && bucketEnd - bucketStart < maxMergeWidth) {
+                double average = bucketBytes / (bucketEnd - bucketStart);
+                long bytes = level0.get(bucketEnd).estimateBytes(null, null);
+                if (bytes > average * bucketRatio || bytes * bucketRatio < average) {
+                    break;
+                }
+                bucketBytes += bytes;
+                bucketEnd++;
+            }
+
+            double average = bucketBytes / (bucketEnd - bucketStart);
+            if (bucketEnd - bucketStart >= minMergeWidth && (picked == null || average < pickedAverage)) {
+                picked = level0.subList(bucketStart, bucketEnd);
+                pickedAverage = average;
+            }
+            bucketStart = bucketEnd;
+        }
+        return picked == null ? null : new CompactionStep(0, List.copyOf(picked), 0, List.of());
+    }
+
+    /**
+     * Picks tables of level 0, if there are level0Tables of them, else the next table of the most overfilled level.
+     *
+     * @param forceLevel0 tables of level 0 are picked, even if there are less of them
+     * @return null if there is nothing to compact
+     */
+    private CompactionStep pickCompaction(boolean forceLevel0) {
+        List<SSTable> level0 = levels.get(0);
+        if (!level0.isEmpty() && (forceLevel0 || level0.size() >= level0Tables)) {
+            return compactionStep(0, level0);
+        }
+
+        int pickedLevel = -1;
+        double maxFill = 1;
+        for (int level = 1; level < levels.size(); level++) {
+            double fill = (double) levelBytes(levels.get(level)) / maxLevelBytes(level);
+            if (fill > maxFill) {
+                maxFill = fill;
+                pickedLevel = level;
+            }
+        }
+        if (pickedLevel < 0) {
+            return null;
+        }
+
+        // Tables of level are compacted in turn, so all keys of level are moved down in the end
+        List<SSTable> tables = levels.get(pickedLevel);
+        ByteBuffer compactPointer = compactPointers.get(pickedLevel);
+        SSTable picked = tables.get(0);
+        for (SSTable table : tables) {
+            if (compactPointer == null || table.minKey().compareTo(compactPointer) > 0) {
+                picked = table;
+                break;
+            }
+        }
+        return compactionStep(pickedLevel, List.of(picked));
+    }
+
+    private CompactionStep compactionStep(int level, List<SSTable> tables) {
+        ByteBuffer minKey = null;
+        ByteBuffer maxKey = null;
+        for (SSTable table : tables) {
+            if (table.minKey() == null) {
+                continue;
+            }
+            if (minKey == null || table.minKey().compareTo(minKey) < 0) {
+                minKey = table.minKey();
+            }
+            if (maxKey == null || table.maxKey().compareTo(maxKey) > 0) {
+                maxKey = table.maxKey();
+            }
+        }
+
+        List<SSTable> overlapped = new ArrayList<>();
+        if (minKey != null && level + 1 < levels.size()) {
+            for (SSTable table : levels.get(level + 1)) {
+                if (table.minKey().compareTo(maxKey) <= 0 && table.maxKey().compareTo(minKey) >= 0) {
+                    overlapped.add(table);
+                }
+            }
+        }
+        return new CompactionStep(level, List.copyOf(tables), level + 1, overlapped);
+    }
+
+    /**
+     * Merges picked tables in tables of output level, that replace them. Merge in level 0 gives one table,
+     * it takes place of merged ones in order of freshness. Merge in other levels is split in subcompactions
+     * by key ranges, they are written in parallel and are installed together.
+     * Output is written without flushCompactLock. Flushes only add tables in begin of level 0,
+     * so tables, that are flushed meanwhile, stay fresher than output.
+     */
+    private void compact(CompactionStep step) throws IOException {
+        int outputLevel = step.outputLevel();
+        boolean withTombstones;
         flushCompactLock.lock();
         try {
-            Path indCompPath = location.resolve(COMPACTED_IND_FILE);
-            Path memCompPath = location.resolve(COMPACTED_MEM_FILE);
-            save(indCompPath, memCompPath, getMergedEntrys(null, null));
+            withTombstones = hasOlderTables(step);
+        } finally {
+            flushCompactLock.unlock();
+        }
 
-            // Not correct for windows, because of deleting files
-            finishCompact(location, indCompPath, memCompPath);
+        if (beforeCompactionOutput != null) {
+            beforeCompactionOutput.run();
+        }
+        List<SSTable> inputs = new ArrayList<>(step.tables());
+        inputs.addAll(step.outputLevelTables());
+        // Manual compaction gives one table as before levels, or one table per subcompaction
+        long tableBytes = outputLevel == 0 || compactionStyle == Config.CompactionStyle.MANUAL
+            ? Long.MAX_VALUE : levelTableBytes;
+        List<SSTable> outputs;
+        if (outputLevel == 0 || subcompactionExecutor == null) {
+            outputs = mergeRange(inputs, null, null, withTombstones, tableBytes);
+        } else {
+            outputs = runSubcompactions(inputs, withTombstones, tableBytes);
+        }
 
-            // Excluding risk of unvalid storageSystem and setting to compact file:
-            List<SSTable> newStParts = new ArrayList<>();
-            newStParts.add(SSTable.load(getIndexFilePath(0), getMemFilePath(0), 0));
-            storageParts = newStParts;
+        flushCompactLock.lock();
+        try {
+            if (levels.size() == outputLevel) {
+                levels.add(new ArrayList<>());
+            }
+            List<SSTable> outputLevelTables = levels.get(outputLevel);
+            if (outputLevel == 0) {
+                List<SSTable> level0 = levels.get(0);
+                int position = level0.indexOf(step.tables().get(0));
+                level0.removeAll(step.tables());
+                level0.addAll(position, outputs);
+            } else {
+                levels.get(step.level()).removeAll(step.tables());
+                // Tables of all deeper levels are merged by manual compaction
+                for (int level = outputLevel; level < levels.size(); level++) {
+                    levels.get(level).removeAll(step.outputLevelTables());
+                }
+                outputLevelTables.addAll(outputs);
+                outputLevelTables.sort(Comparator.comparing(SSTable::minKey));
+            }
+            publishLevels();
         } finally {
             flushCompactLock.unlock();
         }
+        if (step.level() > 0) {
+            ByteBuffer maxKey = step.tables().get(0).maxKey();
+            compactPointers.put(step.level(), ByteBuffer.allocate(maxKey.remaining()).put(maxKey.duplicate()).flip());
+        }
+
+        // Readers may still use views of compacted tables, so their files are deleted after readers
+        for (SSTable input : inputs) {
+            moveToTrash(input);
+        }
+    }
+
+    /**
+     * Merges key range of tables in tables of about tableBytes. Tombstones are dropped, if there is nothing to hide.
+     */
+    private List<SSTable> mergeRange(List<SSTable> inputs, ByteBuffer from, ByteBuffer to, boolean withTombstones,
+        long tableBytes) throws IOException {
+        Iterator<Entry<ByteBuffer>> merged = getMergedEntrys(TablesSnapshot.unleveled(inputs), from, to, List.of(),
+            null, Scan.LAZY, withTombstones);
+        // Bloom filters are sized by estimate of entrys of range, that fit in one table
+        long rangeEntrysC = 0;
+        long rangeBytes = 0;
+        for (SSTable input : inputs) {
+            rangeEntrysC += input.estimateCount(from, to);
+            rangeBytes += input.estimateBytes(from, to);
+        }
+        long tableEntrysC = rangeBytes <= tableBytes ? rangeEntrysC
+            : (long) Math.ceil((double) rangeEntrysC * tableBytes / rangeBytes);
+        List<SSTable> outputs = new ArrayList<>();
+        while (merged.hasNext()) {
+            outputs.add(saveTable(new SizeLimitedIterator(merged, tableBytes), tableEntrysC));
+        }
+        return outputs;
+    }
+
+    /**
+     * Splits keys of inputs in disjoint ranges by keys, that are sampled from indexes of inputs,
+     * and merges ranges in parallel.
+     *
+     * @return tables of all ranges in order of keys
+     */
+    private List<SSTable> runSubcompactions(List<SSTable> inputs, boolean withTombstones, long tableBytes)
+        throws IOException {
+        List<Callable<List<SSTable>>> subcompactions = new ArrayList<>(subcompactionsC);
+        ByteBuffer lower = null;
+        for (ByteBuffer split : splitKeys(inputs, null, null, subcompactionsC)) {
+            ByteBuffer from = lower;
+            subcompactions.add(() -> mergeRange(inputs, from, split, withTombstones, tableBytes));
+            lower = split;
+        }
+        ByteBuffer from = lower;
+        subcompactions.add(() -> mergeRange(inputs, from, null, withTombstones, tableBytes));
+
+        List<SSTable> outputs = new ArrayList<>();
+        try {
+            for (Future<List<SSTable>> subcompaction : subcompactionExecutor.invokeAll(subcompactions)) {
+                outputs.addAll(subcompaction.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Compaction is interrupted.");
+        } catch (ExecutionException e) {
+            // Written tables are not in manifest, so they are deleted on load
+            if (e.getCause() instanceof IOException cause) {
+                throw cause;
+            }
+            throw new IllegalStateException("Subcompaction failed.", e.getCause());
+        }
+        return outputs;
+    }
+
+    /**
+     * Checks, that there are tables older than picked ones, whose entrys may be hidden by tombstones:
+     * tables of deeper levels and older tables of level 0.
+     */
+    private boolean hasOlderTables(CompactionStep step) {
+        for (int level = step.outputLevel() + 1; level < levels.size(); level++) {
+            if (!step.outputLevelTables().containsAll(levels.get(level))) {
+                return true;
+            }
+        }
+        List<SSTable> level0 = levels.get(0);
+        return step.outputLevel() == 0 && level0.indexOf(step.tables().getLast()) < level0.size() - 1;
+    }
+
+    private long maxLevelBytes(int level) {
+        long bytes = levelTableBytes;
+        for (int i = 0; i < level && bytes <= Long.MAX_VALUE / levelFanout; i++) {
+            bytes *= levelFanout;
+        }
+        return bytes;
+    }
+
+    private static long levelBytes(List<SSTable> tables) {
+        long bytes = 0;
+        for (SSTable table : tables) {
+            bytes += table.estimateBytes(null, null);
+        }
+        return bytes;
+    }
+
+    private SSTable saveTable(Iterator<Entry<ByteBuffer>> entrys, long expectedEntrysC) throws IOException {
+        int tableN = nextTableN.getAndIncrement();
+        save(getIndexFilePath(tableN), getMemFilePath(tableN), getBloomFilePath(location, tableN),
+            getPrefixBloomFilePath(location, tableN), expectedEntrysC, entrys);
+        return loadTable(tableN);
+    }
+
+    private SSTable loadTable(int tableN) throws IOException {
+        return SSTable.load(getIndexFilePath(tableN), getMemFilePath(tableN), getBloomFilePath(location, tableN),
+            getPrefixBloomFilePath(location, tableN), blockCache, zeroCopyReads, checksumVerification, prefixExtractor,
+            tableN);
+    }
+
+    /**
+     * Saves manifest of levels and gives their tables to readers. Manifest is saved first, so readers
+     * never see tables, that are lost on crash. Caller should hold flushCompactLock.
+     */
+    private void publishLevels() throws IOException {
+        List<List<Integer>> manifestLevels = new ArrayList<>(levels.size());
+        for (List<SSTable> level : levels) {
+            manifestLevels.add(level.stream().map(SSTable::getStoragePartN).toList());
+        }
+        new Manifest(nextTableN.get(), manifestLevels).write(location.resolve(MANIFEST_FILENAME));
+        tables = snapshotLevels();
+    }
+
+    private TablesSnapshot snapshotLevels() {
+        List<SSTable> parts = new ArrayList<>();
+        int[] levelEnds = new int[levels.size()];
+        for (int level = 0; level < levels.size(); level++) {
+            parts.addAll(levels.get(level));
+            levelEnds[level] = parts.size();
+        }
+        return new TablesSnapshot(List.copyOf(parts), levelEnds);
     }
 
     @Override
     public void close() {
-        storageParts.clear();
+        if (subcompactionExecutor != null) {
+            subcompactionExecutor.shutdown();
+        }
+        tables = TablesSnapshot.unleveled(List.of());
     }
 
+    /**
+     * Checks, that {@link #compact()} has nothing to do.
+     */
     public boolean isCompacted() {
-        return storageParts.size() <= 1;
+        flushCompactLock.lock();
+        try {
+            return switch (compactionStyle) {
+                case MANUAL -> pickAll() == null;
+                case SIZE_TIERED -> levels.get(0).size() <= 1;
+                case LEVELED -> pickCompaction(true) == null;
+            };
+        } finally {
+            flushCompactLock.unlock();
+        }
+    }
+
+    /**
+     * Renames files of table, they are deleted, when table and views of its files are unreachable.
+     * Table is not in manifest already, so its files are deleted on load after crash.
+     */
+    private void moveToTrash(SSTable part) throws IOException {
+        int num = part.getStoragePartN();
+        Files.deleteIfExists(getBloomFilePath(location, num));
+        Files.deleteIfExists(getPrefixBloomFilePath(location, num));
+        Path indTrashPath = location.resolve(TRASH_PREFIX + trashFilesC + "_" + IND_FILENAME);
+        Path memTrashPath = location.resolve(TRASH_PREFIX + trashFilesC + "_" + MEM_FILENAME);
+        trashFilesC++;
+        Files.move(getIndexFilePath(num), indTrashPath, StandardCopyOption.ATOMIC_MOVE);
+        Files.move(getMemFilePath(num), memTrashPath, StandardCopyOption.ATOMIC_MOVE);
+        part.deleteWhenUnreachable(indTrashPath, memTrashPath);
     }
 
     private static void finishCompact(Path location, Path compactedInd, Path compactedMem) throws IOException {
@@ -171,8 +881,13 @@ public final class SSTables implements AutoCloseable {
                 break;
             }
             Files.deleteIfExists(nextMemFile);
+            Files.deleteIfExists(getBloomFilePath(location, i));
+            Files.deleteIfExists(getPrefixBloomFilePath(location, i));
         }
 
+        // Filters are moved first, so table is never loaded with filter of other table. They may be lost on crash.
+        moveFilter(location.resolve(COMPACTED_BLOOM_FILE), getBloomFilePath(location, 0));
+        moveFilter(location.resolve(COMPACTED_PREFIX_BLOOM_FILE), getPrefixBloomFilePath(location, 0));
         Files.move(compactedInd, getIndexFilePath(location, 0), StandardCopyOption.ATOMIC_MOVE);
         Files.move(compactedMem, getMemFilePath(location, 0), StandardCopyOption.ATOMIC_MOVE);
     }
@@ -193,16 +908,131 @@ public final class SSTables implements AutoCloseable {
         return location.resolve(num + IND_FILENAME);
     }
 
-    private static void save(Path indPath, Path memPath, Iterator<Entry<ByteBuffer>> entrysToWrite) throws
-        IOException {
+    private static Path getBloomFilePath(Path location, int num) {
+        return location.resolve(num + BLOOM_FILENAME);
+    }
+
+    private static Path getPrefixBloomFilePath(Path location, int num) {
+        return location.resolve(num + PREFIX_BLOOM_FILENAME);
+    }
+
+    /**
+     * Moves filter of new table. Filter of table with the same number may be left after crash, so it is
+     * replaced or deleted.
+     */
+    private static void moveFilter(Path filterPath, Path targetPath) throws IOException {
+        if (Files.exists(filterPath)) {
+            Files.move(filterPath, targetPath, StandardCopyOption.ATOMIC_MOVE);
+        } else {
+            Files.deleteIfExists(targetPath);
+        }
+    }
+
+    private void save(
+        Path indPath,
+        Path memPath,
+        Path bloomPath,
+        Path prefixBloomPath,
+        long expectedEntrysC,
+        Iterator<Entry<ByteBuffer>> entrysToWrite
+    ) throws IOException {
         Path indTmpPath = indPath.resolveSibling(TMP_PREFIX + indPath.getFileName());
         Files.deleteIfExists(indTmpPath);
 
         Path memTmpPath = memPath.resolveSibling(TMP_PREFIX + memPath.getFileName());
         Files.deleteIfExists(memTmpPath);
 
-        SSTable.saveSTPart(indTmpPath, memTmpPath, entrysToWrite);
+        Path bloomTmpPath = bloomPath.resolveSibling(TMP_PREFIX + bloomPath.getFileName());
+        Files.deleteIfExists(bloomTmpPath);
+
+        Path prefixBloomTmpPath = prefixBloomPath.resolveSibling(TMP_PREFIX + prefixBloomPath.getFileName());
+        Files.deleteIfExists(prefixBloomTmpPath);
+
+        SSTable.saveSTPart(indTmpPath, memTmpPath, bloomTmpPath, prefixBloomTmpPath, bloomBitsPerKey, prefixExtractor,
+            expectedEntrysC, entrysToWrite);
+        moveFilter(bloomTmpPath, bloomPath);
+        moveFilter(prefixBloomTmpPath, prefixBloomPath);
         Files.move(indTmpPath, indPath, StandardCopyOption.ATOMIC_MOVE);
         Files.move(memTmpPath, memPath, StandardCopyOption.ATOMIC_MOVE);
+        // Renames are durable too, so saved table survives power loss
+        SSTable.forceDirectory(location);
+    }
+
+    /**
+     * Tables of level, that are merged with tables of output level, which they overlap.
+     * Output level is the next one for leveled compaction and level 0 itself for size-tiered one.
+     * Manual compaction merges level 0 in level 1 with tables of all levels from 1, deeper are later.
+     */
+    private record CompactionStep(int level, List<SSTable> tables, int outputLevel, List<SSTable> outputLevelTables) {
+    }
+
+    /**
+     * Tables of levels for readers.
+     *
+     * @param parts     tables of level 0, fresh first, then tables of levels 1, 2, ... Order is priority of merge
+     * @param levelEnds ends of levels in parts. Tables of level 0 may overlap, tables of other levels
+     *                  don't overlap and are sorted by keys
+     */
+    private record TablesSnapshot(List<SSTable> parts, int[] levelEnds) {
+        /**
+         * Gives snapshot of tables, that may overlap, all of them are in level 0.
+         */
+        static TablesSnapshot unleveled(List<SSTable> parts) {
+            return new TablesSnapshot(parts, new int[] {parts.size()});
+        }
+
+        /**
+         * Gives position of the first table of level, that may have keys not less than from. Tables of level 0
+         * are checked from the first one, table of sorted level is found by binary search of max keys.
+         */
+        int firstInRange(int level, ByteBuffer from) {
+            int low = level == 0 ? 0 : levelEnds[level - 1];
+            if (level == 0 || from == null) {
+                return low;
+            }
+            int high = levelEnds[level];
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (parts.get(mid).maxKey().compareTo(from) < 0) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+    }
+
+    /**
+     * Gives entrys of source, until their size reaches limit, so merge is split in tables of about limit bytes.
+     */
+    private static final class SizeLimitedIterator implements Iterator<Entry<ByteBuffer>> {
+        private final Iterator<Entry<ByteBuffer>> source;
+        private final long limitBytes;
+        private long bytes;
+
+        SizeLimitedIterator(Iterator<Entry<ByteBuffer>> source, long limitBytes) {
+            this.source = source;
+            this.limitBytes = limitBytes;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return bytes < limitBytes && source.hasNext();
+        }
+
+        @Override
+        public Entry<ByteBuffer> next() {
+            Entry<ByteBuffer> entry = source.next();
+            bytes += SSTable.getPersEntryByteSize(entry);
+            return entry;
+        }
+    }
+
+    private enum Scan {
+        FORWARD,
+        DESCENDING,
+        // Forward, values of tables are read lazily
+        LAZY
     }
 }
@@ -0,0 +1,47 @@
+package ru.leo.lsm.internal;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Unsigned numbers in 7 bit groups, lowest group first. High bit of byte means that number continues.
+ */
+public final class VarInts {
+    public static final int MAX_VAR_LONG_BYTES = 10;
+    public static final int MAX_VAR_INT_BYTES = 5;
+
+    private VarInts() {
+    }
+
+    public static void putVarLong(ByteBuffer buffer, long value) {
+        long rest = value;
+        while ((rest & ~0x7FL) != 0) {
+            buffer.put((byte) ((rest & 0x7F) | 0x80));
+            rest >>>= 7;
+        }
+        buffer.put((byte) rest);
+    }
+
+    public static long getVarLong(ByteBuffer buffer, int position) {
+        long value = 0;
+        int shift = 0;
+        int ind = position;
+        byte next;
+        do {
+            next = buffer.get(ind++);
+            value |= (long) (next & 0x7F) << shift;
+            shift += 7;
+        } while (next < 0);
+        return value;
+    }
+
+    public static int getVarInt(ByteBuffer buffer, int position) {
+        return (int) getVarLong(buffer, position);
+    }
+
+    /**
+     * Count of bytes, that value takes, so reader can move to next number.
+     */
+    public static int sizeOf(long value) {
+        return Math.max(1, (Long.SIZE - Long.numberOfLeadingZeros(value) + 6) / 7);
+    }
+}
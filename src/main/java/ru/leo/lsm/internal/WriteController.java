@@ -0,0 +1,86 @@
+package ru.leo.lsm.internal;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BooleanSupplier;
+import java.util.function.IntSupplier;
+
+/**
+ * Slows down and stops upserts, when flush does not keep up with them.
+ */
+public final class WriteController {
+    // Delay of one upsert grows by this step for every immutable memtable from slowdown trigger
+    private static final long SLOWDOWN_STEP_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+    private static final long FLUSH_AWAIT_MILLIS = 100;
+
+    private final int slowdownTrigger;
+    private final int stopTrigger;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition flushed = lock.newCondition();
+    private final LongAdder delayedWrites = new LongAdder();
+    private final LongAdder stoppedWrites = new LongAdder();
+    private final LongAdder stallNanos = new LongAdder();
+
+    public WriteController(int slowdownTrigger, int stopTrigger) {
+        this.slowdownTrigger = slowdownTrigger;
+        this.stopTrigger = stopTrigger;
+    }
+
+    /**
+     * Delays upsert, if count of immutable memtables is close to limit.
+     */
+    public void delayWrite(int immutableMemTables) {
+        if (immutableMemTables < slowdownTrigger) {
+            return;
+        }
+
+        long delay = SLOWDOWN_STEP_NANOS * (Math.min(immutableMemTables, stopTrigger) - slowdownTrigger + 1);
+        long start = System.nanoTime();
+        LockSupport.parkNanos(delay);
+        delayedWrites.increment();
+        stallNanos.add(System.nanoTime() - start);
+    }
+
+    /**
+     * Waits until count of immutable memtables is less than limit, so one more memtable can be switched.
+     *
+     * @param flushStopped if flush is stopped, memtables will never be flushed
+     */
+    public void awaitFreeSlot(IntSupplier immutableMemTables, BooleanSupplier flushStopped)
+        throws InterruptedException {
+        if (immutableMemTables.getAsInt() < stopTrigger) {
+            return;
+        }
+
+        long start = System.nanoTime();
+        lock.lock();
+        try {
+            while (immutableMemTables.getAsInt() >= stopTrigger) {
+                if (flushStopped.getAsBoolean()) {
+                    throw new IllegalStateException("Flush is stopped, memtable can't be switched.");
+                }
+                flushed.await(FLUSH_AWAIT_MILLIS, TimeUnit.MILLISECONDS);
+            }
+        } finally {
+            lock.unlock();
+            stoppedWrites.increment();
+            stallNanos.add(System.nanoTime() - start);
+        }
+    }
+
+    public void onFlushed() {
+        lock.lock();
+        try {
+            flushed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public WriteStallStats getStats() {
+        return new WriteStallStats(delayedWrites.sum(), stoppedWrites.sum(), stallNanos.sum());
+    }
+}
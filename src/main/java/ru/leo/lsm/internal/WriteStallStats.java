@@ -0,0 +1,11 @@
+package ru.leo.lsm.internal;
+
+/**
+ * Statistics of upserts, that waited for flush.
+ *
+ * @param delayedWrites count of upserts, that were slowed down
+ * @param stoppedWrites count of upserts, that were stopped until flush of memtable
+ * @param stallNanos    total time, that upserts spent in delays and stops
+ */
+public record WriteStallStats(long delayedWrites, long stoppedWrites, long stallNanos) {
+}
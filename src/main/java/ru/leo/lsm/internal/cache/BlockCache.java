@@ -0,0 +1,158 @@
+package ru.leo.lsm.internal.cache;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+import java.util.function.ToIntFunction;
+import ru.leo.lsm.Config;
+
+/**
+ * Cache of decoded blocks of tables, limited by byte size.
+ * Cache is split in stripes by key hash, every stripe has own lock, size limit and eviction order.
+ *
+ * @param <V> decoded block, it should not be changed after loading
+ */
+public final class BlockCache<V> {
+    private static final int STRIPES = 16;
+
+    private final List<Stripe> stripes = new ArrayList<>(STRIPES);
+    private final ToIntFunction<V> weigher;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * @param capacityBytes      size limit of all cached blocks
+     * @param expectedBlockBytes size of usual block, used by policies, that track keys, which are not cached
+     * @param weigher            estimates byte size of block
+     */
+    public BlockCache(
+        long capacityBytes,
+        int expectedBlockBytes,
+        Config.BlockCacheEviction eviction,
+        ToIntFunction<V> weigher
+    ) {
+        this.weigher = weigher;
+        long stripeCapacity = Math.max(1, capacityBytes / STRIPES);
+        int stripeBlocks = (int) Math.min(Integer.MAX_VALUE / 16, Math.max(1, stripeCapacity / expectedBlockBytes));
+        for (int i = 0; i < STRIPES; i++) {
+            EvictionPolicy<BlockKey> policy = switch (eviction) {
+                case LRU -> new LruPolicy<>();
+                case CLOCK -> new ClockPolicy<>();
+                case TINY_LFU -> new TinyLfuPolicy<>(stripeBlocks);
+            };
+            stripes.add(new Stripe(stripeCapacity, policy));
+        }
+    }
+
+    /**
+     * Gives cached block or loads it. Loading is done without lock,
+     * so concurrent readers of the same missing block may load it both.
+     *
+     * @param tableId     id of table, unique for all tables of process
+     * @param blockOffset offset of block in table
+     * @param loader      decodes block from table
+     */
+    public V get(long tableId, long blockOffset, Supplier<V> loader) {
+        BlockKey key = new BlockKey(tableId, blockOffset);
+        Stripe stripe = stripes.get(key.hashCode() & (STRIPES - 1));
+        V block = stripe.get(key);
+        if (block != null) {
+            hits.increment();
+            return block;
+        }
+
+        misses.increment();
+        block = loader.get();
+        stripe.put(key, block, weigher.applyAsInt(block));
+        return block;
+    }
+
+    public BlockCacheStats getStats() {
+        long sizeBytes = 0;
+        for (Stripe stripe : stripes) {
+            sizeBytes += stripe.sizeBytes();
+        }
+        return new BlockCacheStats(hits.sum(), misses.sum(), evictions.sum(), sizeBytes);
+    }
+
+    private record BlockKey(long tableId, long blockOffset) {
+        @Override
+        public int hashCode() {
+            long hash = (tableId * 0x9E3779B97F4A7C15L) ^ blockOffset;
+            hash ^= hash >>> 33;
+            hash *= 0xFF51AFD7ED558CCDL;
+            return (int) (hash ^ (hash >>> 33));
+        }
+    }
+
+    private record Cached<V>(V block, int weight) {
+    }
+
+    private final class Stripe {
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Map<BlockKey, Cached<V>> blocks = new HashMap<>();
+        private final long capacityBytes;
+        private final EvictionPolicy<BlockKey> policy;
+        private long sizeBytes;
+
+        Stripe(long capacityBytes, EvictionPolicy<BlockKey> policy) {
+            this.capacityBytes = capacityBytes;
+            this.policy = policy;
+        }
+
+        V get(BlockKey key) {
+            lock.lock();
+            try {
+                Cached<V> cached = blocks.get(key);
+                policy.recordAccess(key, cached != null);
+                return cached == null ? null : cached.block();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void put(BlockKey key, V block, int weight) {
+            if (weight > capacityBytes) {
+                evictions.increment();
+                return;
+            }
+
+            lock.lock();
+            try {
+                Cached<V> previous = blocks.get(key);
+                if (previous != null) {
+                    // Concurrent reader has loaded the same block
+                    return;
+                }
+                if (sizeBytes + weight > capacityBytes && !policy.admit(key)) {
+                    evictions.increment();
+                    return;
+                }
+
+                policy.add(key);
+                blocks.put(key, new Cached<>(block, weight));
+                sizeBytes += weight;
+                while (sizeBytes > capacityBytes) {
+                    sizeBytes -= blocks.remove(policy.evict()).weight();
+                    evictions.increment();
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        long sizeBytes() {
+            lock.lock();
+            try {
+                return sizeBytes;
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+}
@@ -0,0 +1,12 @@
+package ru.leo.lsm.internal.cache;
+
+/**
+ * Statistics of block cache.
+ *
+ * @param hits      count of reads of blocks, that were found in cache
+ * @param misses    count of reads of blocks, that were decoded from file
+ * @param evictions count of blocks, that were evicted or were not admitted in cache
+ * @param sizeBytes current estimated size of cached blocks
+ */
+public record BlockCacheStats(long hits, long misses, long evictions, long sizeBytes) {
+}
@@ -0,0 +1,42 @@
+package ru.leo.lsm.internal.cache;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Second chance approximation of LRU: hit only sets reference bit, so hits don't change order.
+ * Hand evicts the first key without bit, clearing bits on its way.
+ */
+class ClockPolicy<K> implements EvictionPolicy<K> {
+    // Head of queue is the hand of clock
+    private final ArrayDeque<K> clock = new ArrayDeque<>();
+    private final Map<K, Boolean> referenced = new HashMap<>();
+
+    @Override
+    public void recordAccess(K key, boolean cached) {
+        if (cached) {
+            referenced.put(key, Boolean.TRUE);
+        }
+    }
+
+    @Override
+    public void add(K key) {
+        clock.addLast(key);
+        referenced.put(key, Boolean.FALSE);
+    }
+
+    @Override
+    public K evict() {
+        while (true) {
+            K candidate = clock.pollFirst();
+            if (referenced.get(candidate)) {
+                referenced.put(candidate, Boolean.FALSE);
+                clock.addLast(candidate);
+            } else {
+                referenced.remove(candidate);
+                return candidate;
+            }
+        }
+    }
+}
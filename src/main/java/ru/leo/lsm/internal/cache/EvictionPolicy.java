@@ -0,0 +1,28 @@
+package ru.leo.lsm.internal.cache;
+
+/**
+ * Order of eviction of one cache stripe. Calls are guarded by stripe lock.
+ */
+interface EvictionPolicy<K> {
+
+    /**
+     * Called on every lookup of key, whether it is cached or not.
+     */
+    void recordAccess(K key, boolean cached);
+
+    void add(K key);
+
+    /**
+     * Called before adding of key, when something should be evicted for it.
+     *
+     * @return false if key is less valuable than the next victim and should not be cached
+     */
+    default boolean admit(K key) {
+        return true;
+    }
+
+    /**
+     * Removes the next victim from policy.
+     */
+    K evict();
+}
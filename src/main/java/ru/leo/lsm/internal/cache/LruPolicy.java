@@ -0,0 +1,36 @@
+package ru.leo.lsm.internal.cache;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * Evicts least recently used key.
+ */
+class LruPolicy<K> implements EvictionPolicy<K> {
+    // Access order: least recently used is the first
+    private final LinkedHashMap<K, Boolean> order = new LinkedHashMap<>(16, 0.75f, true);
+
+    @Override
+    public void recordAccess(K key, boolean cached) {
+        if (cached) {
+            order.get(key);
+        }
+    }
+
+    @Override
+    public void add(K key) {
+        order.put(key, Boolean.TRUE);
+    }
+
+    @Override
+    public K evict() {
+        Iterator<K> victims = order.keySet().iterator();
+        K victim = victims.next();
+        victims.remove();
+        return victim;
+    }
+
+    K peekVictim() {
+        return order.isEmpty() ? null : order.keySet().iterator().next();
+    }
+}
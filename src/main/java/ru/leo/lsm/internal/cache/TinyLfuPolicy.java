@@ -0,0 +1,83 @@
+package ru.leo.lsm.internal.cache;
+
+/**
+ * LRU with TinyLFU admission: new key replaces LRU victim only if it was accessed more frequently.
+ * Frequencies are approximated by count-min sketch of 4 bit counters, which are halved periodically,
+ * so old popularity is forgotten.
+ */
+class TinyLfuPolicy<K> implements EvictionPolicy<K> {
+    private static final int DEPTH = 4;
+    private static final int MAX_COUNT = 15;
+    private static final long[] SEEDS = {
+        0x9E3779B97F4A7C15L, 0xC2B2AE3D27D4EB4FL, 0x165667B19E3779F9L, 0xD6E8FEB86659FD93L
+    };
+
+    private final LruPolicy<K> lru = new LruPolicy<>();
+    private final byte[] counters;
+    private final int mask;
+    private final int sampleSize;
+    private int additions;
+
+    /**
+     * @param expectedKeys count of keys, that fit in cache, sketch keeps frequencies of about 8 times more keys
+     */
+    TinyLfuPolicy(int expectedKeys) {
+        int width = Integer.highestOneBit(Math.max(16, expectedKeys * 8 - 1)) << 1;
+        counters = new byte[width * DEPTH];
+        mask = width - 1;
+        sampleSize = 10 * width;
+    }
+
+    @Override
+    public void recordAccess(K key, boolean cached) {
+        increment(key);
+        lru.recordAccess(key, cached);
+    }
+
+    @Override
+    public void add(K key) {
+        lru.add(key);
+    }
+
+    @Override
+    public boolean admit(K key) {
+        K victim = lru.peekVictim();
+        return victim == null || frequency(key) > frequency(victim);
+    }
+
+    @Override
+    public K evict() {
+        return lru.evict();
+    }
+
+    private int frequency(K key) {
+        int hash = key.hashCode();
+        int frequency = MAX_COUNT;
+        for (int i = 0; i < DEPTH; i++) {
+            frequency = Math.min(frequency, counters[index(hash, i)]);
+        }
+        return frequency;
+    }
+
+    private void increment(K key) {
+        int hash = key.hashCode();
+        for (int i = 0; i < DEPTH; i++) {
+            int index = index(hash, i);
+            if (counters[index] < MAX_COUNT) {
+                counters[index]++;
+            }
+        }
+
+        if (++additions == sampleSize) {
+            for (int i = 0; i < counters.length; i++) {
+                counters[i] >>= 1;
+            }
+            additions = 0;
+        }
+    }
+
+    private int index(int hash, int row) {
+        long rowHash = (hash + SEEDS[row]) * SEEDS[row];
+        return row * (mask + 1) + (int) ((rowHash >>> 32) & mask);
+    }
+}
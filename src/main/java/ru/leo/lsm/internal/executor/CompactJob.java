@@ -5,11 +5,11 @@ import java.util.concurrent.BlockingQueue;
 import ru.leo.lsm.internal.SSTables;
 
 public class CompactJob implements Runnable {
-    public static final boolean POISON_PILL = false;
+    public static final Request POISON_PILL = Request.STOP;
     private final SSTables storageSystem;
-    private final BlockingQueue<Boolean> compactionQueue;
+    private final BlockingQueue<Request> compactionQueue;
 
-    public CompactJob(SSTables storageSystem, BlockingQueue<Boolean> compactionQueue) {
+    public CompactJob(SSTables storageSystem, BlockingQueue<Request> compactionQueue) {
         this.storageSystem = storageSystem;
         this.compactionQueue = compactionQueue;
     }
@@ -17,8 +17,11 @@ public class CompactJob implements Runnable {
     @Override
     public void run() {
         try {
-            while (compactionQueue.take()) {
-                if (!storageSystem.isCompacted()) {
+            Request request;
+            while ((request = compactionQueue.take()) != POISON_PILL) {
+                if (request == Request.AUTOMATIC) {
+                    storageSystem.compactAutomatically();
+                } else if (!storageSystem.isCompacted()) {
                     storageSystem.compact();
                 }
             }
@@ -26,4 +29,12 @@ public class CompactJob implements Runnable {
             throw new RuntimeException(e);
         }
     }
+
+    public enum Request {
+        // Compaction by Dao.compact()
+        MANUAL,
+        // Check of tables after flush, they are compacted, if compaction style wants it
+        AUTOMATIC,
+        STOP
+    }
 }
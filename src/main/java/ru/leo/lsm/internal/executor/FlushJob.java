@@ -1,51 +1,64 @@
 package ru.leo.lsm.internal.executor;
 
 import java.io.IOException;
-import java.nio.ByteBuffer;
+import java.util.Deque;
 import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.ConcurrentNavigableMap;
-import java.util.concurrent.ConcurrentSkipListMap;
-import ru.leo.lsm.Entry;
+import ru.leo.lsm.internal.CommitLog;
 import ru.leo.lsm.internal.SSTables;
+import ru.leo.lsm.internal.WriteController;
+import ru.leo.lsm.internal.memtable.MemTable;
+import ru.leo.lsm.internal.memtable.SkipListMemTable;
 
 public class FlushJob implements Runnable {
-    // Poison pill is empty map
-    public static final ConcurrentNavigableMap<ByteBuffer, Entry<ByteBuffer>> POISON_PILL =
-            new ConcurrentSkipListMap<>();
-    private volatile ConcurrentNavigableMap<ByteBuffer, Entry<ByteBuffer>> inFlushing;
-    private final BlockingQueue<ConcurrentNavigableMap<ByteBuffer, Entry<ByteBuffer>>> flushQueue;
+    // Poison pill is empty memtable
+    public static final MemTable POISON_PILL = new SkipListMemTable();
+    private final BlockingQueue<MemTable> flushQueue;
+    // Fresh in begin. Memtable is removed only after it is saved, so it is readable during flushing.
+    private final Deque<MemTable> immutableMemTables;
     private final SSTables storageSystem;
+    private final CommitLog commitLog;
+    private final WriteController writeController;
+    // Tables are checked for automatic compaction after every flush
+    private final BlockingQueue<CompactJob.Request> compactionQueue;
 
     public FlushJob(
         SSTables storageSystem,
-                         BlockingQueue<ConcurrentNavigableMap<ByteBuffer, Entry<ByteBuffer>>> flushQueue) {
+        BlockingQueue<MemTable> flushQueue,
+        Deque<MemTable> immutableMemTables,
+        CommitLog commitLog,
+        WriteController writeController,
+        BlockingQueue<CompactJob.Request> compactionQueue) {
         this.storageSystem = storageSystem;
         this.flushQueue = flushQueue;
+        this.immutableMemTables = immutableMemTables;
+        this.commitLog = commitLog;
+        this.writeController = writeController;
+        this.compactionQueue = compactionQueue;
     }
 
     @Override
     public void run() {
         try {
+            MemTable inFlushing;
             // take is blocking
             while (!isPoisonPill(inFlushing = flushQueue.take())) {
+                // Save forces table and its directory, so records of log are durable in table before release
                 storageSystem.save(inFlushing);
-                inFlushing = null;
+                // Memtables are flushed in order of switching, so it is the oldest one
+                immutableMemTables.pollLast();
+                commitLog.release();
+                writeController.onFlushed();
+                // One waiting check covers all flushes before it
+                if (!compactionQueue.contains(CompactJob.Request.AUTOMATIC)) {
+                    compactionQueue.add(CompactJob.Request.AUTOMATIC);
+                }
             }
         } catch (InterruptedException | IOException e) {
             throw new RuntimeException(e);
         }
     }
 
-    /**
-     * Fix with in flushing memory, to have access to it during flushing.
-     *
-     * @return memory that is flushing now or null, if all memory are flushed already
-     */
-    public ConcurrentNavigableMap<ByteBuffer, Entry<ByteBuffer>> getInFlushing() {
-        return inFlushing;
-    }
-
-    private static boolean isPoisonPill(ConcurrentNavigableMap<ByteBuffer, Entry<ByteBuffer>> memTable) {
+    private static boolean isPoisonPill(MemTable memTable) {
         return memTable.isEmpty();
     }
 }
@@ -3,6 +3,7 @@ package ru.leo.lsm.internal.iterator;
 import java.nio.ByteBuffer;
 import java.util.Iterator;
 import ru.leo.lsm.Entry;
+import ru.leo.lsm.SeekableIterator;
 
 public class IndexedPeekIterator implements Iterator<Entry<ByteBuffer>> {
     private final int storagePartN;
@@ -36,4 +37,24 @@ public class IndexedPeekIterator implements Iterator<Entry<ByteBuffer>> {
         current = null;
         return peek;
     }
+
+    /**
+     * Moves to the first entry with key greater or equal to given one, see {@link SeekableIterator#seek}.
+     * Not seekable delegate is moved by skipping of entrys.
+     */
+    @SuppressWarnings("unchecked")
+    public void seek(ByteBuffer key) {
+        if (current != null && current.key().compareTo(key) >= 0) {
+            return;
+        }
+
+        current = null;
+        if (delegate instanceof SeekableIterator<?, ?> seekable) {
+            ((SeekableIterator<ByteBuffer, Entry<ByteBuffer>>) seekable).seek(key);
+            return;
+        }
+        while (peek() != null && current.key().compareTo(key) < 0) {
+            current = null;
+        }
+    }
 }
@@ -1,17 +1,46 @@
 package ru.leo.lsm.internal.iterator;
 
 import java.nio.ByteBuffer;
-import java.util.Iterator;
+import java.util.Comparator;
+import java.util.List;
 import java.util.NoSuchElementException;
-import java.util.PriorityQueue;
 import ru.leo.lsm.Entry;
+import ru.leo.lsm.SeekableIterator;
 
-public class TablesIterator implements Iterator<Entry<ByteBuffer>> {
-    private final PriorityQueue<IndexedPeekIterator> binaryHeap;
+/**
+ * K-way merge of sorted sources by loser tree. Of equal keys only entry of the freshest source
+ * (with the greatest storage part number) is given, tombstones are skipped, unless they are kept for compaction.
+ * Every taken entry costs about log k comparisons: only path of winner source is replayed.
+ * Seek moves sources in place and rebuilds only the tree, it is supported for ascending sources.
+ */
+public class TablesIterator implements SeekableIterator<ByteBuffer, Entry<ByteBuffer>> {
+    private final IndexedPeekIterator[] sources;
+    private final Comparator<ByteBuffer> keyOrder;
+    // tree[0] is winner, other nodes are losers of their matches. Leaf of source i is node sources.length + i.
+    private final int[] tree;
+    private final boolean withTombstones;
     private Entry<ByteBuffer> next;
 
-    public TablesIterator(PriorityQueue<IndexedPeekIterator> binaryHeap) {
-        this.binaryHeap = binaryHeap;
+    /**
+     * Creates merge of sources.
+     *
+     * @param keyOrder order of keys in every source, reversed order for descending sources
+     */
+    public TablesIterator(List<IndexedPeekIterator> sources, Comparator<ByteBuffer> keyOrder) {
+        this(sources, keyOrder, false);
+    }
+
+    /**
+     * Creates merge of sources.
+     *
+     * @param withTombstones tombstones are given, so merge of part of tables still hides older entrys
+     */
+    public TablesIterator(List<IndexedPeekIterator> sources, Comparator<ByteBuffer> keyOrder, boolean withTombstones) {
+        this.sources = sources.toArray(new IndexedPeekIterator[0]);
+        this.keyOrder = keyOrder;
+        this.tree = new int[this.sources.length];
+        this.withTombstones = withTombstones;
+        build();
     }
 
     @Override
@@ -34,36 +63,106 @@ public class TablesIterator implements Iterator<Entry<ByteBuffer>> {
         return ans;
     }
 
+    @Override
+    public void seek(ByteBuffer key) {
+        if (next != null) {
+            if (next.key().compareTo(key) >= 0) {
+                return;
+            }
+            next = null;
+        }
+
+        for (IndexedPeekIterator source : sources) {
+            source.seek(key);
+        }
+        build();
+    }
+
     private Entry<ByteBuffer> tryToGetNext() {
-        while (!binaryHeap.isEmpty()) {
-            IndexedPeekIterator freshIterator = binaryHeap.remove();
-            Entry<ByteBuffer> freshNext = freshIterator.next();
-
-            while (!binaryHeap.isEmpty() && freshNext.key().equals(binaryHeap.element().peek().key())) {
-                IndexedPeekIterator dublicateIt = binaryHeap.remove();
-                Entry<ByteBuffer> dublicateNext = dublicateIt.next();
-                if (dublicateIt.getStoragePartN() > freshIterator.getStoragePartN()) {
-                    IndexedPeekIterator temp = freshIterator;
-                    freshIterator = dublicateIt;
-                    dublicateIt = temp;
-
-                    freshNext = dublicateNext;
-                }
+        if (sources.length == 0) {
+            return null;
+        }
 
-                if (dublicateIt.peek() != null) {
-                    binaryHeap.add(dublicateIt);
-                }
+        while (true) {
+            IndexedPeekIterator freshIterator = sources[tree[0]];
+            Entry<ByteBuffer> freshNext = freshIterator.peek();
+            if (freshNext == null) {
+                return null;
             }
+            freshIterator.next();
+            replay(tree[0]);
 
-            if (freshIterator.peek() != null) {
-                binaryHeap.add(freshIterator);
+            // Equal keys of older sources lose to fresh one, so they are the next winners
+            while (true) {
+                IndexedPeekIterator dublicateIt = sources[tree[0]];
+                Entry<ByteBuffer> dublicateNext = dublicateIt.peek();
+                if (dublicateNext == null || !dublicateNext.key().equals(freshNext.key())) {
+                    break;
+                }
+                dublicateIt.next();
+                replay(tree[0]);
             }
 
-            if (freshNext.value() != null) {
+            if (withTombstones || !freshNext.isTombstone()) {
                 return freshNext;
             }
         }
+    }
+
+    private void build() {
+        int sourcesC = sources.length;
+        if (sourcesC == 0) {
+            return;
+        }
+
+        int[] winners = new int[2 * sourcesC];
+        for (int i = 0; i < sourcesC; i++) {
+            winners[sourcesC + i] = i;
+        }
+        for (int node = sourcesC - 1; node > 0; node--) {
+            int left = winners[2 * node];
+            int right = winners[2 * node + 1];
+            if (beats(left, right)) {
+                winners[node] = left;
+                tree[node] = right;
+            } else {
+                winners[node] = right;
+                tree[node] = left;
+            }
+        }
+        tree[0] = sourcesC == 1 ? 0 : winners[1];
+    }
+
+    /**
+     * Plays matches on path from leaf of source to root, after source has moved to the next entry.
+     */
+    private void replay(int source) {
+        int winner = source;
+        for (int node = (sources.length + source) >>> 1; node > 0; node >>>= 1) {
+            if (beats(tree[node], winner)) {
+                int loser = winner;
+                winner = tree[node];
+                tree[node] = loser;
+            }
+        }
+        tree[0] = winner;
+    }
 
-        return null;
+    /**
+     * Checks, that entry of first source should be taken before entry of second one.
+     * Exhausted source loses to all, of equal keys the fresher source wins.
+     */
+    private boolean beats(int first, int second) {
+        Entry<ByteBuffer> firstEntry = sources[first].peek();
+        Entry<ByteBuffer> secondEntry = sources[second].peek();
+        if (firstEntry == null || secondEntry == null) {
+            return secondEntry == null && firstEntry != null;
+        }
+
+        int cmp = keyOrder.compare(firstEntry.key(), secondEntry.key());
+        if (cmp != 0) {
+            return cmp < 0;
+        }
+        return sources[first].getStoragePartN() > sources[second].getStoragePartN();
     }
 }
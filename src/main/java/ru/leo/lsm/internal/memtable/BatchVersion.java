@@ -0,0 +1,61 @@
+package ru.leo.lsm.internal.memtable;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Value of key written by batch. Batch is visible for reader only if it is committed before reader started,
+ * otherwise reader uses previous value of key.
+ *
+ * @param value    value of memtable implementation
+ * @param batchN   number of batch in memtable, batches are committed in order of numbers
+ * @param previous previous value of key or null if key was absent
+ */
+record BatchVersion<V>(V value, long batchN, Object previous) {
+
+    /**
+     * Finds value, that is visible for reader.
+     *
+     * @param stored            value stored in memtable, plain value or BatchVersion
+     * @param committedBatchN   number of the last batch, that was committed when reader started
+     * @return visible plain value or null if key is not visible
+     */
+    @SuppressWarnings("unchecked")
+    static <V> V resolve(Object stored, long committedBatchN) {
+        Object current = stored;
+        while (current instanceof BatchVersion<?> version) {
+            current = version.batchN() <= committedBatchN ? version.value() : version.previous();
+        }
+        return (V) current;
+    }
+
+    /**
+     * Drops versions, that no reader sees. The newest version, that is visible for all readers,
+     * is replaced by its plain value, older ones are dropped. Newer versions are copied with the new tail.
+     *
+     * @param stored        value stored in memtable, plain value or BatchVersion
+     * @param oldestBatchN  the oldest number of committed batch, that readers may use
+     * @return stored value or its collapsed copy
+     */
+    static Object collapse(Object stored, long oldestBatchN) {
+        if (!(stored instanceof BatchVersion<?>)) {
+            return stored;
+        }
+        // Chain may be long while old iterator is open, so it is walked without recursion
+        List<BatchVersion<?>> newer = new ArrayList<>();
+        Object current = stored;
+        while (current instanceof BatchVersion<?> version && version.batchN() > oldestBatchN) {
+            newer.add(version);
+            current = version.previous();
+        }
+        if (!(current instanceof BatchVersion<?> visible)) {
+            return stored;
+        }
+
+        Object collapsed = visible.value();
+        for (BatchVersion<?> version : newer.reversed()) {
+            collapsed = new BatchVersion<Object>(version.value(), version.batchN(), collapsed);
+        }
+        return collapsed;
+    }
+}
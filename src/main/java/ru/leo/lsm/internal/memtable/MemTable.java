@@ -0,0 +1,63 @@
+package ru.leo.lsm.internal.memtable;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.List;
+import ru.leo.lsm.Config;
+import ru.leo.lsm.Entry;
+import ru.leo.lsm.SeekableIterator;
+
+/**
+ * In memory sorted table of fresh upserts. Tombstones are kept, because they hide entrys of SSTables.
+ */
+public interface MemTable {
+
+    static MemTable create(Config config) {
+        return switch (config.memTableType()) {
+            case SKIP_LIST -> new SkipListMemTable();
+            case OFF_HEAP -> new OffHeapMemTable(config.offHeapArenaBytes());
+        };
+    }
+
+    /**
+     * Returns entry (may be tombstone) by key.
+     *
+     * @return entry or null if there is no entry with such key
+     */
+    Entry<ByteBuffer> get(ByteBuffer key);
+
+    /**
+     * Returns ordered iterator of entrys (with tombstones) with keys between from (inclusive) and to (exclusive).
+     * Batches, that are applied after creation of iterator, are not visible for it.
+     *
+     * @param from lower bound of range (inclusive), null means no bound
+     * @param to   upper bound of range (exclusive), null means no bound
+     */
+    SeekableIterator<ByteBuffer, Entry<ByteBuffer>> get(ByteBuffer from, ByteBuffer to);
+
+    /**
+     * Returns entrys of {@link #get(ByteBuffer, ByteBuffer)} in reverse order, the greatest key is the first.
+     */
+    Iterator<Entry<ByteBuffer>> getDescending(ByteBuffer from, ByteBuffer to);
+
+    void upsert(Entry<ByteBuffer> entry);
+
+    /**
+     * Applies entrys so that readers see all of them or none of them.
+     * Entrys of not applied yet batch are read as they were before the batch.
+     */
+    void upsert(List<Entry<ByteBuffer>> batch);
+
+    boolean isEmpty();
+
+    /**
+     * Returns count of upserted entrys, overwritten entrys are counted too. It is tracked, so it costs nothing.
+     */
+    long upsertsCount();
+
+    /**
+     * Returns size of upserted entrys in SSTable format, overwritten entrys are counted too.
+     * It is tracked, so it costs nothing.
+     */
+    long upsertedBytes();
+}
@@ -0,0 +1,168 @@
+package ru.leo.lsm.internal.memtable;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+import ru.leo.lsm.BaseEntry;
+import ru.leo.lsm.Entry;
+import ru.leo.lsm.SeekableIterator;
+import ru.leo.lsm.internal.SSTable;
+
+/**
+ * Memtable, that copies keys and values in big off heap arenas, so GC doesn't trace them.
+ * Arena record has SSTable entry format. Index maps key (view of arena) to address of the latest record value
+ * (or to batch version of address), where address is arena number in high 32 bits and offset in arena in low 32 bits.
+ */
+public class OffHeapMemTable implements MemTable {
+    private final int arenaBytes;
+    private final ConcurrentNavigableMap<ByteBuffer, Object> index = new ConcurrentSkipListMap<>();
+    private final LongAdder upsertsCount = new LongAdder();
+    private final LongAdder upsertedBytes = new LongAdder();
+    // Iterators, whose batch versions are kept by writers of batches
+    private final ReaderSnapshots snapshots = new ReaderSnapshots();
+    // Arenas are only added (copy on write), so readers use it without lock
+    private volatile ByteBuffer[] arenas = new ByteBuffer[0];
+    // Position of current arena is the first free byte
+    private ByteBuffer currentArena;
+    private int currentArenaN;
+    // Guarded by monitor of this
+    private long lastBatchN;
+    private volatile long committedBatchN;
+
+    public OffHeapMemTable(int arenaBytes) {
+        this.arenaBytes = arenaBytes;
+    }
+
+    @Override
+    public Entry<ByteBuffer> get(ByteBuffer key) {
+        Long valueAddress = BatchVersion.resolve(index.get(key), committedBatchN);
+        return valueAddress == null ? null : toEntry(key, valueAddress);
+    }
+
+    @Override
+    public SeekableIterator<ByteBuffer, Entry<ByteBuffer>> get(ByteBuffer from, ByteBuffer to) {
+        return new VisibleEntrysIterator<Long>(
+            SkipListMemTable.getRange(index, from, to),
+            snapshots,
+            () -> committedBatchN,
+            this::toEntry
+        );
+    }
+
+    @Override
+    public Iterator<Entry<ByteBuffer>> getDescending(ByteBuffer from, ByteBuffer to) {
+        return new VisibleEntrysIterator<Long>(
+            SkipListMemTable.getRange(index, from, to).descendingMap(),
+            snapshots,
+            () -> committedBatchN,
+            this::toEntry
+        );
+    }
+
+    @Override
+    public void upsert(Entry<ByteBuffer> entry) {
+        long address = write(entry);
+        index.put(keyView(entry, address), valueAddress(entry, address));
+    }
+
+    @Override
+    public synchronized void upsert(List<Entry<ByteBuffer>> batch) {
+        long batchN = ++lastBatchN;
+        long oldestBatchN = snapshots.oldestBatchN(committedBatchN);
+        for (Entry<ByteBuffer> entry : batch) {
+            long address = write(entry);
+            long valueAddress = valueAddress(entry, address);
+            index.compute(keyView(entry, address),
+                (key, previous) -> new BatchVersion<>(valueAddress, batchN,
+                    BatchVersion.collapse(previous, oldestBatchN)));
+        }
+        committedBatchN = batchN;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return index.isEmpty();
+    }
+
+    @Override
+    public long upsertsCount() {
+        return upsertsCount.sum();
+    }
+
+    @Override
+    public long upsertedBytes() {
+        return upsertedBytes.sum();
+    }
+
+    /**
+     * Copies entry in arena.
+     *
+     * @return address of record
+     */
+    private long write(Entry<ByteBuffer> entry) {
+        long address;
+        int entrySize = SSTable.getPersEntryByteSize(entry);
+        synchronized (this) {
+            address = allocate(entrySize);
+        }
+        upsertsCount.increment();
+        upsertedBytes.add(entrySize);
+
+        SSTable.persistEntry(entry, arenas[arenaN(address)].duplicate().position(offset(address)));
+        return address;
+    }
+
+    private ByteBuffer keyView(Entry<ByteBuffer> entry, long address) {
+        return arenas[arenaN(address)].slice(offset(address) + Integer.BYTES, entry.key().remaining())
+            .asReadOnlyBuffer();
+    }
+
+    private static long valueAddress(Entry<ByteBuffer> entry, long address) {
+        return address + Integer.BYTES + entry.key().remaining();
+    }
+
+    private Entry<ByteBuffer> toEntry(ByteBuffer key, long valueAddress) {
+        ByteBuffer arena = arenas[arenaN(valueAddress)];
+        int offset = offset(valueAddress);
+        int valueSize = arena.getInt(offset);
+        ByteBuffer value = valueSize == SSTable.LEN_FOR_NULL
+            ? null
+            : arena.slice(offset + Integer.BYTES, valueSize).asReadOnlyBuffer();
+        return new BaseEntry<>(key, value);
+    }
+
+    // Caller should hold monitor of this
+    private long allocate(int size) {
+        if (size > arenaBytes) {
+            // Big entry gets its own arena, so current arena is not wasted
+            return (long) addArena(size) << 32;
+        }
+
+        if (currentArena == null || currentArena.remaining() < size) {
+            currentArenaN = addArena(arenaBytes);
+            currentArena = arenas[currentArenaN];
+        }
+        long address = ((long) currentArenaN << 32) | currentArena.position();
+        currentArena.position(currentArena.position() + size);
+        return address;
+    }
+
+    private int addArena(int size) {
+        ByteBuffer[] grown = Arrays.copyOf(arenas, arenas.length + 1);
+        grown[arenas.length] = ByteBuffer.allocateDirect(size);
+        arenas = grown;
+        return grown.length - 1;
+    }
+
+    private static int arenaN(long address) {
+        return (int) (address >>> 32);
+    }
+
+    private static int offset(long address) {
+        return (int) address;
+    }
+}
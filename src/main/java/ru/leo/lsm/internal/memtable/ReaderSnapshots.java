@@ -0,0 +1,56 @@
+package ru.leo.lsm.internal.memtable;
+
+import java.lang.ref.Cleaner;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Numbers of the last committed batches, that open iterators of memtable read. Versions of key, that are older
+ * than the version visible for the oldest iterator, are not visible for anyone, so writer of batch collapses them.
+ * Iterator is unregistered, when it is exhausted or unreachable.
+ */
+final class ReaderSnapshots {
+    private static final Cleaner READERS_CLEANER = Cleaner.create();
+    private static final AtomicLong READER_IDS = new AtomicLong();
+
+    private final ConcurrentSkipListSet<Reader> readers = new ConcurrentSkipListSet<>(
+        Comparator.comparingLong(Reader::batchN).thenComparingLong(Reader::id));
+
+    /**
+     * Registers iterator with the last committed batch.
+     *
+     * @return registration, that should be cleaned, when iterator is exhausted
+     */
+    Registration register(Object iterator, LongSupplier committedBatchN) {
+        long batchN = committedBatchN.getAsLong();
+        while (true) {
+            Reader reader = new Reader(batchN, READER_IDS.getAndIncrement());
+            readers.add(reader);
+            // Writer may collapse versions of batchN, if it has not seen reader, so batchN is rechecked after add
+            long current = committedBatchN.getAsLong();
+            if (current == batchN) {
+                return new Registration(batchN, READERS_CLEANER.register(iterator, () -> readers.remove(reader)));
+            }
+            readers.remove(reader);
+            batchN = current;
+        }
+    }
+
+    /**
+     * Returns the oldest batch number, that readers may use. Caller should hold lock of batch writers.
+     */
+    long oldestBatchN(long committedBatchN) {
+        // Set may become empty after check, so first reader is got by iterator
+        Iterator<Reader> oldest = readers.iterator();
+        return oldest.hasNext() ? Math.min(oldest.next().batchN(), committedBatchN) : committedBatchN;
+    }
+
+    record Registration(long batchN, Cleaner.Cleanable cleanable) {
+    }
+
+    private record Reader(long batchN, long id) {
+    }
+}
@@ -0,0 +1,108 @@
+package ru.leo.lsm.internal.memtable;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+import ru.leo.lsm.Entry;
+import ru.leo.lsm.SeekableIterator;
+import ru.leo.lsm.internal.SSTable;
+
+public class SkipListMemTable implements MemTable {
+    // Values are entrys or batch versions of entrys
+    private final ConcurrentNavigableMap<ByteBuffer, Object> entrys = new ConcurrentSkipListMap<>();
+    private final LongAdder upsertsCount = new LongAdder();
+    private final LongAdder upsertedBytes = new LongAdder();
+    // Iterators, whose batch versions are kept by writers of batches
+    private final ReaderSnapshots snapshots = new ReaderSnapshots();
+    // Guarded by monitor of this
+    private long lastBatchN;
+    private volatile long committedBatchN;
+
+    @Override
+    public Entry<ByteBuffer> get(ByteBuffer key) {
+        return BatchVersion.resolve(entrys.get(key), committedBatchN);
+    }
+
+    @Override
+    public SeekableIterator<ByteBuffer, Entry<ByteBuffer>> get(ByteBuffer from, ByteBuffer to) {
+        return new VisibleEntrysIterator<Entry<ByteBuffer>>(
+            getRange(entrys, from, to),
+            snapshots,
+            () -> committedBatchN,
+            (key, entry) -> entry
+        );
+    }
+
+    @Override
+    public Iterator<Entry<ByteBuffer>> getDescending(ByteBuffer from, ByteBuffer to) {
+        return new VisibleEntrysIterator<Entry<ByteBuffer>>(
+            getRange(entrys, from, to).descendingMap(),
+            snapshots,
+            () -> committedBatchN,
+            (key, entry) -> entry
+        );
+    }
+
+    @Override
+    public void upsert(Entry<ByteBuffer> entry) {
+        entrys.put(entry.key(), entry);
+        track(entry);
+    }
+
+    @Override
+    public synchronized void upsert(List<Entry<ByteBuffer>> batch) {
+        long batchN = ++lastBatchN;
+        long oldestBatchN = snapshots.oldestBatchN(committedBatchN);
+        for (Entry<ByteBuffer> entry : batch) {
+            entrys.compute(entry.key(),
+                (key, previous) -> new BatchVersion<>(entry, batchN, BatchVersion.collapse(previous, oldestBatchN)));
+            track(entry);
+        }
+        committedBatchN = batchN;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return entrys.isEmpty();
+    }
+
+    @Override
+    public long upsertsCount() {
+        return upsertsCount.sum();
+    }
+
+    @Override
+    public long upsertedBytes() {
+        return upsertedBytes.sum();
+    }
+
+    private void track(Entry<ByteBuffer> entry) {
+        upsertsCount.increment();
+        upsertedBytes.add(SSTable.getPersEntryByteSize(entry));
+    }
+
+    /**
+     * Cuts map in given range.
+     */
+    static <V> ConcurrentNavigableMap<ByteBuffer, V> getRange(
+        ConcurrentNavigableMap<ByteBuffer, V> map,
+        ByteBuffer from, ByteBuffer to
+    ) {
+        ConcurrentNavigableMap<ByteBuffer, V> cut;
+
+        if (from == null && to == null) {
+            cut = map;
+        } else if (from == null) {
+            cut = map.headMap(to);
+        } else if (to == null) {
+            cut = map.tailMap(from);
+        } else {
+            cut = map.subMap(from, to);
+        }
+
+        return cut;
+    }
+}
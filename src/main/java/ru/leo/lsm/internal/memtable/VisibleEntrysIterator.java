@@ -0,0 +1,80 @@
+package ru.leo.lsm.internal.memtable;
+
+import java.lang.ref.Cleaner;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.function.BiFunction;
+import java.util.function.LongSupplier;
+import ru.leo.lsm.Entry;
+import ru.leo.lsm.SeekableIterator;
+
+/**
+ * Iterates over memtable index, skipping keys that have only not committed batch versions for reader.
+ * Iterator is registered in snapshots of memtable, until it is exhausted, so versions it reads are kept.
+ * Seek is supported for ascending ranges.
+ */
+class VisibleEntrysIterator<V> implements SeekableIterator<ByteBuffer, Entry<ByteBuffer>> {
+    private final ConcurrentNavigableMap<ByteBuffer, Object> range;
+    private Iterator<Map.Entry<ByteBuffer, Object>> delegate;
+    private final long committedBatchN;
+    private final Cleaner.Cleanable registration;
+    private final BiFunction<ByteBuffer, V, Entry<ByteBuffer>> toEntry;
+    private Entry<ByteBuffer> next;
+
+    VisibleEntrysIterator(
+        ConcurrentNavigableMap<ByteBuffer, Object> range,
+        ReaderSnapshots snapshots,
+        LongSupplier committedBatchN,
+        BiFunction<ByteBuffer, V, Entry<ByteBuffer>> toEntry
+    ) {
+        ReaderSnapshots.Registration snapshot = snapshots.register(this, committedBatchN);
+        this.range = range;
+        this.delegate = range.entrySet().iterator();
+        this.committedBatchN = snapshot.batchN();
+        this.registration = snapshot.cleanable();
+        this.toEntry = toEntry;
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (next == null && delegate.hasNext()) {
+            Map.Entry<ByteBuffer, Object> indexEntry = delegate.next();
+            V value = BatchVersion.resolve(indexEntry.getValue(), committedBatchN);
+            if (value != null) {
+                next = toEntry.apply(indexEntry.getKey(), value);
+            }
+        }
+        if (next == null) {
+            registration.clean();
+        }
+        return next != null;
+    }
+
+    @Override
+    public Entry<ByteBuffer> next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        Entry<ByteBuffer> current = next;
+        next = null;
+        return current;
+    }
+
+    @Override
+    public void seek(ByteBuffer key) {
+        if (!hasNext() || next.key().compareTo(key) >= 0) {
+            return;
+        }
+
+        // Ceiling key is null, if key is out of range
+        ByteBuffer ceilingKey = range.ceilingKey(key);
+        next = null;
+        delegate = ceilingKey == null
+            ? Collections.emptyIterator()
+            : range.tailMap(ceilingKey, true).entrySet().iterator();
+    }
+}
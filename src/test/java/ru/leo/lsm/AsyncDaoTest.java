@@ -0,0 +1,107 @@
+package ru.leo.lsm;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import ru.leo.lsm.helper.DaoFactory;
+import ru.leo.lsm.helper.DaoTest;
+
+public class AsyncDaoTest extends BaseTest {
+
+    @DaoTest
+    void manyLookups(Dao<String, Entry<String>> dao) throws Exception {
+        for (int i = 0; i < 5_000; i++) {
+            dao.upsert(entryAt(i));
+        }
+        dao.close();
+        dao = DaoFactory.reopen(dao);
+
+        try (AsyncDao<String, Entry<String>> asyncDao = new AsyncDao<>(dao)) {
+            List<CompletableFuture<Void>> upserts = new ArrayList<>();
+            for (int i = 5_000; i < 6_000; i++) {
+                upserts.add(asyncDao.upsert(entryAt(i)));
+            }
+            CompletableFuture.allOf(upserts.toArray(CompletableFuture<?>[]::new)).join();
+
+            List<CompletableFuture<Entry<String>>> lookups = new ArrayList<>();
+            for (int i = 0; i < 10_000; i++) {
+                lookups.add(asyncDao.get(keyAt(i % 6_000)));
+            }
+            for (int i = 0; i < lookups.size(); i++) {
+                Assertions.assertEquals(entryAt(i % 6_000), lookups.get(i).join());
+            }
+
+            Assertions.assertEquals(
+                List.of(entryAt(4_999), entryAt(5_000)), asyncDao.get(keyAt(4_999), keyAt(5_001)).join());
+            Assertions.assertNull(asyncDao.get(keyAt(6_000)).join());
+        }
+    }
+
+    @Test
+    void concurrencyIsBounded() throws Exception {
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        Dao<String, Entry<String>> slowDao = new Dao<>() {
+            @Override
+            public Iterator<Entry<String>> get(String from, String to) throws IOException {
+                maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                try {
+                    Thread.sleep(5);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException(e);
+                } finally {
+                    running.decrementAndGet();
+                }
+                throw new IOException("Disk is broken");
+            }
+
+            @Override
+            public void upsert(Entry<String> entry) {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public long estimateCount(String from, String to) {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public long estimateBytes(String from, String to) {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public Iterator<Entry<String>> prefix(String prefix) {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public void write(WriteBatch<String> batch) {
+                throw new UnsupportedOperationException();
+            }
+        };
+
+        int maxConcurrency = 4;
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            AsyncDao<String, Entry<String>> asyncDao = new AsyncDao<>(slowDao, executor, maxConcurrency);
+            List<CompletableFuture<Entry<String>>> lookups = new ArrayList<>();
+            for (int i = 0; i < 200; i++) {
+                lookups.add(asyncDao.get(keyAt(i)));
+            }
+            for (CompletableFuture<Entry<String>> lookup : lookups) {
+                Throwable error = Assertions.assertThrows(Exception.class, lookup::join);
+                Assertions.assertInstanceOf(IOException.class, error.getCause());
+            }
+        }
+        Assertions.assertTrue(maxRunning.get() <= maxConcurrency);
+        Assertions.assertTrue(maxRunning.get() > 1);
+    }
+}
@@ -0,0 +1,93 @@
+package ru.leo.lsm;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import org.junit.jupiter.api.Assertions;
+import ru.leo.lsm.helper.DaoFactory;
+import ru.leo.lsm.helper.DaoStringFactory;
+import ru.leo.lsm.helper.DaoTest;
+import ru.leo.lsm.internal.LSMDao;
+
+public class AutomaticCompactionTest extends BaseTest {
+    private static final int FLUSHES = 16;
+
+    @DaoTest
+    void sizeTieredMergesSimilarTables(Dao<String, Entry<String>> dao) throws IOException {
+        Config config = DaoFactory.extractConfig(dao).withSizeTieredCompaction(4, 8, 1.5);
+        dao.close();
+
+        // Flushed tables are merged by 4 or more, if checks are late, then merged tables are merged again
+        Map<String, String> expected = flushRounds(config);
+        Assertions.assertTrue(countTables(config.basePath()) < FLUSHES / 2);
+        assertContent(config, expected);
+    }
+
+    @DaoTest
+    void leveledCompactsAfterFlush(Dao<String, Entry<String>> dao) throws IOException {
+        Config config = DaoFactory.extractConfig(dao).withLeveledCompaction(2, 16 * 1024, 4);
+        dao.close();
+
+        Map<String, String> expected = flushRounds(config);
+        Assertions.assertTrue(countTables(config.basePath()) < FLUSHES / 2);
+        assertContent(config, expected);
+    }
+
+    @DaoTest
+    void manualStyleWaitsForCompact(Dao<String, Entry<String>> dao) throws IOException {
+        Config config = DaoFactory.extractConfig(dao);
+        dao.close();
+
+        Map<String, String> expected = flushRounds(config);
+        Assertions.assertEquals(FLUSHES, countTables(config.basePath()));
+        assertContent(config, expected);
+    }
+
+    /**
+     * Flushes tables of similar sizes, keys of every table overwrite and delete keys of older ones.
+     */
+    private Map<String, String> flushRounds(Config config) throws IOException {
+        DaoStringFactory factory = new DaoStringFactory();
+        Map<String, String> expected = new TreeMap<>();
+        try (LSMDao rawDao = (LSMDao) factory.createDao(config)) {
+            for (int round = 0; round < FLUSHES; round++) {
+                for (int i = round; i < 1_000; i += 3) {
+                    String key = keyAt(i);
+                    if (i % 10 == round % 10) {
+                        rawDao.upsert(new BaseEntry<>(factory.fromString(key), null));
+                        expected.remove(key);
+                    } else {
+                        String value = valueAt(i) + "_" + round;
+                        rawDao.upsert(new BaseEntry<>(factory.fromString(key), factory.fromString(value)));
+                        expected.put(key, value);
+                    }
+                }
+                rawDao.flush();
+            }
+        }
+        return expected;
+    }
+
+    private void assertContent(Config config, Map<String, String> expected) throws IOException {
+        Dao<String, Entry<String>> dao = new DaoStringFactory().createStringDao(config);
+        List<Entry<String>> entries = new ArrayList<>();
+        expected.forEach((key, value) -> entries.add(entry(key, value)));
+        assertSame(dao.all(), entries);
+        dao.close();
+    }
+
+    private static int countTables(Path basePath) throws IOException {
+        int count = 0;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(basePath, "[0-9]*daoIndex.bin")) {
+            for (Path ignored : files) {
+                count++;
+            }
+        }
+        return count;
+    }
+}
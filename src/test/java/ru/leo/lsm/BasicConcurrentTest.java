@@ -1,6 +1,8 @@
 package ru.leo.lsm;
 
 import java.util.List;
+import ru.leo.lsm.helper.DaoFactory;
+import ru.leo.lsm.helper.DaoStringFactory;
 import ru.leo.lsm.helper.DaoTest;
 
 public class BasicConcurrentTest extends BaseTest {
@@ -37,4 +39,19 @@ public class BasicConcurrentTest extends BaseTest {
         assertSame(dao.all(), entries);
     }
 
+    @DaoTest
+    void testStalledWrites_10_000(Dao<String, Entry<String>> dao) throws Exception {
+        Config config = DaoFactory.extractConfig(dao);
+        dao.close();
+
+        int count = 10_000;
+        List<Entry<String>> entries = entries("k", "v", count);
+        // Memtables are switched much faster, than flushed
+        Config stalling = new Config(config.basePath(), 4096).withWriteStalls(1, 1);
+        try (Dao<String, Entry<String>> stallingDao = new DaoStringFactory().createStringDao(stalling)) {
+            runInParallel(100, count, value -> stallingDao.upsert(entries.get(value))).close();
+            assertSame(stallingDao.all(), entries);
+        }
+    }
+
 }
@@ -0,0 +1,81 @@
+package ru.leo.lsm;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ReadOnlyBufferException;
+import java.util.List;
+import org.junit.jupiter.api.Assertions;
+import ru.leo.lsm.helper.DaoFactory;
+import ru.leo.lsm.helper.DaoStringFactory;
+import ru.leo.lsm.helper.DaoTest;
+import ru.leo.lsm.internal.LSMDao;
+import ru.leo.lsm.internal.cache.BlockCacheStats;
+
+public class BlockCacheTest extends BaseTest {
+
+    @DaoTest
+    void lru(Dao<String, Entry<String>> dao) throws Exception {
+        readThroughCache(dao, Config.BlockCacheEviction.LRU);
+    }
+
+    @DaoTest
+    void clock(Dao<String, Entry<String>> dao) throws Exception {
+        readThroughCache(dao, Config.BlockCacheEviction.CLOCK);
+    }
+
+    @DaoTest
+    void tinyLfu(Dao<String, Entry<String>> dao) throws Exception {
+        readThroughCache(dao, Config.BlockCacheEviction.TINY_LFU);
+    }
+
+    @DaoTest
+    void hotBlocksAreCached(Dao<String, Entry<String>> dao) throws IOException {
+        Config config = DaoFactory.extractConfig(dao);
+        dao.close();
+        DaoStringFactory factory = new DaoStringFactory();
+        // Raw dao gives entries and stats of cache itself
+        try (LSMDao rawDao = (LSMDao) factory.createDao(config)) {
+            for (int i = 0; i < 1_000; i++) {
+                rawDao.upsert(new BaseEntry<>(factory.fromString(keyAt(i)), factory.fromString(valueAt(i))));
+            }
+        }
+
+        try (LSMDao rawDao = (LSMDao) factory.createDao(config)) {
+            for (int i = 0; i < 10; i++) {
+                Entry<ByteBuffer> cached = rawDao.get(factory.fromString(keyAt(1)));
+                Assertions.assertEquals(valueAt(1), factory.toString(cached.value()));
+                Assertions.assertThrows(ReadOnlyBufferException.class, () -> cached.value().put(0, (byte) 0));
+            }
+
+            BlockCacheStats stats = rawDao.getBlockCacheStats();
+            Assertions.assertEquals(1, stats.misses());
+            Assertions.assertEquals(9, stats.hits());
+            Assertions.assertTrue(stats.sizeBytes() > 0);
+        }
+    }
+
+    private void readThroughCache(Dao<String, Entry<String>> dao, Config.BlockCacheEviction eviction)
+        throws Exception {
+        Config config = DaoFactory.extractConfig(dao);
+        dao.close();
+
+        int count = 20_000;
+        List<Entry<String>> entries = entries(count);
+        // Cache is much smaller than data, so blocks are evicted all the time
+        Config cached = new Config(config.basePath(), 64 * 1024).withBlockCache(64 * 1024, eviction);
+        Dao<String, Entry<String>> cachedDao = new DaoStringFactory().createStringDao(cached);
+        entries.forEach(cachedDao::upsert);
+        cachedDao.close();
+
+        cachedDao = DaoFactory.reopen(cachedDao);
+        Dao<String, Entry<String>> reopened = cachedDao;
+        runInParallel(10, count, i -> {
+            // Hot keys are read again and again
+            assertValueAt(reopened, i % 100);
+            assertValueAt(reopened, i);
+        }).close();
+        assertSame(cachedDao.all(), entries);
+        assertSame(cachedDao.allFrom(keyAt(count / 2)), entries.subList(count / 2, count));
+        cachedDao.close();
+    }
+}
@@ -0,0 +1,82 @@
+package ru.leo.lsm;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.junit.jupiter.api.Assertions;
+import ru.leo.lsm.helper.DaoFactory;
+import ru.leo.lsm.helper.DaoStringFactory;
+import ru.leo.lsm.helper.DaoTest;
+
+public class BloomFilterTest extends BaseTest {
+
+    @DaoTest
+    void pointLookups(Dao<String, Entry<String>> dao) throws Exception {
+        int count = 2_000;
+        // Small threshold, so there are many tables
+        Dao<String, Entry<String>> bloomDao = createDao(dao, 4 * 1024, Config.DEFAULT_BLOOM_BITS_PER_KEY);
+        for (int i = 0; i < count; i += 2) {
+            bloomDao.upsert(entryAt(i));
+        }
+        bloomDao.close();
+
+        bloomDao = DaoFactory.reopen(bloomDao);
+        assertEvenPresent(bloomDao, count);
+        bloomDao.close();
+    }
+
+    @DaoTest
+    void tablesWithoutFilters(Dao<String, Entry<String>> dao) throws Exception {
+        int count = 1_000;
+        Dao<String, Entry<String>> noBloomDao = createDao(dao, 4 * 1024, 0);
+        for (int i = 0; i < count; i += 2) {
+            noBloomDao.upsert(entryAt(i));
+        }
+        noBloomDao.close();
+        Config config = DaoFactory.extractConfig(noBloomDao);
+        Assertions.assertEquals(0, countBloomFiles(config.basePath()));
+
+        // Old tables have no filters, new ones have
+        Dao<String, Entry<String>> bloomDao = new DaoStringFactory().createStringDao(
+            config.withBloomFilter(Config.DEFAULT_BLOOM_BITS_PER_KEY));
+        for (int i = count; i < 2 * count; i += 2) {
+            bloomDao.upsert(entryAt(i));
+        }
+        bloomDao.flush();
+        assertEvenPresent(bloomDao, 2 * count);
+        bloomDao.close();
+        Assertions.assertNotEquals(0, countBloomFiles(config.basePath()));
+    }
+
+    private void assertEvenPresent(Dao<String, Entry<String>> dao, int count) throws IOException {
+        for (int i = 0; i < count; i++) {
+            if (i % 2 == 0) {
+                assertValueAt(dao, i);
+            } else {
+                Assertions.assertNull(dao.get(keyAt(i)));
+            }
+        }
+    }
+
+    private static int countBloomFiles(Path basePath) throws IOException {
+        int count = 0;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(basePath, "*daoBloom.bin")) {
+            for (Path ignored : files) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static Dao<String, Entry<String>> createDao(
+        Dao<String, Entry<String>> dao,
+        long flushThreshold,
+        int bloomBitsPerKey
+    ) throws IOException {
+        Config config = DaoFactory.extractConfig(dao);
+        dao.close();
+        return new DaoStringFactory().createStringDao(new Config(config.basePath(), flushThreshold)
+            .withBloomFilter(bloomBitsPerKey));
+    }
+}
@@ -0,0 +1,97 @@
+package ru.leo.lsm;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import org.junit.jupiter.api.Assertions;
+import ru.leo.lsm.helper.DaoFactory;
+import ru.leo.lsm.helper.DaoStringFactory;
+import ru.leo.lsm.helper.DaoTest;
+import ru.leo.lsm.internal.LSMDao;
+
+public class ChecksumTest extends BaseTest {
+
+    @DaoTest
+    void corruptedBlockIsNotRead(Dao<String, Entry<String>> dao) throws IOException {
+        for (int i = 0; i < 1_000; i++) {
+            dao.upsert(entryAt(i));
+        }
+        Config config = DaoFactory.extractConfig(dao);
+        dao.close();
+        // Byte in the middle of the only table is in one of later blocks
+        flipByte(config.basePath().resolve("0daoMem.bin"), 0.5);
+
+        for (Config.ChecksumVerification verification : Config.ChecksumVerification.values()) {
+            if (verification == Config.ChecksumVerification.OFF) {
+                continue;
+            }
+            for (long cacheBytes : new long[] {0, Config.DEFAULT_BLOCK_CACHE_BYTES}) {
+                Config readConfig = config.withChecksums(verification, 0)
+                    .withBlockCache(cacheBytes, Config.BlockCacheEviction.LRU);
+                Dao<String, Entry<String>> reopened = new DaoStringFactory().createStringDao(readConfig);
+                // Blocks before the corrupted one are read
+                Assertions.assertEquals(entryAt(0), reopened.get(keyAt(0)));
+                assertSame(reopened.get(keyAt(0), keyAt(10)), entries(10));
+                Assertions.assertThrows(IllegalStateException.class, () -> {
+                    Iterator<Entry<String>> all = reopened.all();
+                    while (all.hasNext()) {
+                        all.next();
+                    }
+                });
+                reopened.close();
+            }
+        }
+    }
+
+    @DaoTest
+    void corruptedIndexIsNotLoaded(Dao<String, Entry<String>> dao) throws IOException {
+        for (int i = 0; i < 1_000; i++) {
+            dao.upsert(entryAt(i));
+        }
+        Config config = DaoFactory.extractConfig(dao);
+        dao.close();
+        flipByte(config.basePath().resolve("0daoIndex.bin"), 0.1);
+
+        Assertions.assertThrows(IllegalStateException.class, () -> new DaoStringFactory().createStringDao(config));
+        // Without verification table is loaded as is
+        new DaoStringFactory().createStringDao(config.withChecksums(Config.ChecksumVerification.OFF, 0)).close();
+    }
+
+    @DaoTest
+    void scrubberFindsCorruptedBlocks(Dao<String, Entry<String>> dao) throws Exception {
+        Config config = DaoFactory.extractConfig(dao);
+        dao.close();
+        DaoStringFactory factory = new DaoStringFactory();
+        try (LSMDao rawDao = (LSMDao) factory.createDao(config)) {
+            for (int table = 0; table < 3; table++) {
+                for (int i = 0; i < 1_000; i++) {
+                    rawDao.upsert(new BaseEntry<>(factory.fromString(keyAt(i)), factory.fromString(valueAt(i))));
+                }
+                rawDao.flush();
+            }
+        }
+        flipByte(config.basePath().resolve("1daoMem.bin"), 0.3);
+        flipByte(config.basePath().resolve("2daoMem.bin"), 0.7);
+
+        Config scrubbed = config.withChecksums(Config.ChecksumVerification.OFF, 10);
+        try (LSMDao rawDao = (LSMDao) factory.createDao(scrubbed)) {
+            while (rawDao.getChecksumStats().scrubs() == 0) {
+                Thread.sleep(10);
+            }
+            Assertions.assertEquals(2, rawDao.getChecksumStats().corruptedBlocks());
+        }
+    }
+
+    private static void flipByte(Path file, double at) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long position = (long) (channel.size() * at);
+            ByteBuffer b = ByteBuffer.allocate(1);
+            channel.read(b, position);
+            b.put(0, (byte) (b.get(0) ^ 0x10));
+            channel.write(b.flip(), position);
+        }
+    }
+}
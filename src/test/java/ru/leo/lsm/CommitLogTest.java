@@ -0,0 +1,75 @@
+package ru.leo.lsm;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import ru.leo.lsm.helper.DaoFactory;
+import ru.leo.lsm.helper.DaoStringFactory;
+import ru.leo.lsm.helper.DaoTest;
+
+public class CommitLogTest extends BaseTest {
+
+    @DaoTest
+    void replayAfterCrash(Dao<String, Entry<String>> dao) throws Exception {
+        Config config = syncConfig(dao);
+        List<Entry<String>> entries = entries(1_000);
+
+        Config crashed = new Config(Files.createTempDirectory("crashed"), config.flushThresholdBytes());
+        try (Dao<String, Entry<String>> syncDao = new DaoStringFactory().createStringDao(config)) {
+            runInParallel(10, entries.size(), i -> syncDao.upsert(entries.get(i))).close();
+            // Files as they are on disk at the moment of crash
+            copyDir(config.basePath(), crashed.basePath());
+        }
+
+        try (Dao<String, Entry<String>> recovered = new DaoStringFactory().createStringDao(crashed)) {
+            assertSame(recovered.all(), entries);
+        }
+        cleanUpDir(crashed);
+    }
+
+    @DaoTest
+    void tornRecord(Dao<String, Entry<String>> dao) throws Exception {
+        Config config = syncConfig(dao);
+        List<Entry<String>> entries = entries(100);
+
+        Config crashed = new Config(Files.createTempDirectory("crashed"), config.flushThresholdBytes());
+        try (Dao<String, Entry<String>> syncDao = new DaoStringFactory().createStringDao(config)) {
+            entries.forEach(syncDao::upsert);
+            copyDir(config.basePath(), crashed.basePath());
+        }
+
+        // Half written record in the end of log
+        try (DirectoryStream<Path> logs = Files.newDirectoryStream(crashed.basePath(), "*commitLog.bin")) {
+            for (Path log : logs) {
+                Files.write(log, new byte[] {0, 0, 0, 100, 1, 2}, StandardOpenOption.APPEND);
+            }
+        }
+
+        try (Dao<String, Entry<String>> recovered = new DaoStringFactory().createStringDao(crashed)) {
+            assertSame(recovered.all(), entries);
+            recovered.upsert(entryAt(1_000));
+        }
+
+        Dao<String, Entry<String>> reopened = new DaoStringFactory().createStringDao(crashed);
+        assertValueAt(reopened, 1_000);
+        reopened.close();
+        cleanUpDir(crashed);
+    }
+
+    private static Config syncConfig(Dao<String, Entry<String>> dao) throws IOException {
+        Config config = DaoFactory.extractConfig(dao);
+        dao.close();
+        return config.withCommitLog(Config.CommitLogSync.SYNC, Config.DEFAULT_COMMIT_LOG_SYNC_PERIOD_MILLIS);
+    }
+
+    private static void copyDir(Path from, Path to) throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(from)) {
+            for (Path file : files) {
+                Files.copy(file, to.resolve(file.getFileName()));
+            }
+        }
+    }
+}
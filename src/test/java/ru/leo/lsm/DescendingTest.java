@@ -0,0 +1,78 @@
+package ru.leo.lsm;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import org.junit.jupiter.api.Assertions;
+import ru.leo.lsm.helper.DaoFactory;
+import ru.leo.lsm.helper.DaoStringFactory;
+import ru.leo.lsm.helper.DaoTest;
+
+public class DescendingTest extends BaseTest {
+
+    @DaoTest
+    void memoryAndDisk(Dao<String, Entry<String>> dao) throws IOException {
+        dao = fill(dao);
+        assertReversed(dao);
+    }
+
+    @DaoTest
+    void withoutBlockCache(Dao<String, Entry<String>> dao) throws IOException {
+        Config config = DaoFactory.extractConfig(dao);
+        dao.close();
+        dao = fill(new DaoStringFactory().createStringDao(config.withBlockCache(0, Config.BlockCacheEviction.LRU)));
+        assertReversed(dao);
+        dao.close();
+    }
+
+    @DaoTest
+    void latest(Dao<String, Entry<String>> dao) throws IOException {
+        int count = 10_000;
+        entries(count).forEach(dao::upsert);
+        dao.close();
+        dao = DaoFactory.reopen(dao);
+
+        Iterator<Entry<String>> latest = dao.descending(null, keyAt(count / 2));
+        for (int i = count / 2 - 1; i >= count / 2 - 10; i--) {
+            Assertions.assertEquals(entryAt(i), latest.next());
+        }
+        assertSame(dao.descending(keyAt(count), null), List.of());
+    }
+
+    private Dao<String, Entry<String>> fill(Dao<String, Entry<String>> dao) throws IOException {
+        // Oldest table has all keys, newer table removes and replaces some of them, memory has the newest
+        for (int i = 0; i < 3_000; i++) {
+            dao.upsert(entryAt(i));
+        }
+        dao.close();
+        dao = DaoFactory.reopen(dao);
+        for (int i = 0; i < 3_000; i += 7) {
+            dao.upsert(entry(keyAt(i), null));
+            dao.upsert(entry(keyAt(i + 3), "new" + i));
+        }
+        dao.close();
+        dao = DaoFactory.reopen(dao);
+        for (int i = 0; i < 3_000; i += 11) {
+            dao.upsert(i % 2 == 0 ? entry(keyAt(i), "newest" + i) : entry(keyAt(i), null));
+        }
+        return dao;
+    }
+
+    private void assertReversed(Dao<String, Entry<String>> dao) throws IOException {
+        String[][] ranges = {
+            {null, null},
+            {keyAt(100), keyAt(2_000)},
+            {keyAt(7), keyAt(8)},
+            {keyAt(7), keyAt(7)},
+            {null, keyAt(1)},
+            {keyAt(2_999), null},
+            {keyAt(5_000), null}
+        };
+        for (String[] range : ranges) {
+            List<Entry<String>> expected = new ArrayList<>();
+            dao.get(range[0], range[1]).forEachRemaining(expected::add);
+            assertSame(dao.descending(range[0], range[1]), expected.reversed());
+        }
+    }
+}
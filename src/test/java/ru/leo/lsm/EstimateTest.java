@@ -0,0 +1,63 @@
+package ru.leo.lsm;
+
+import java.io.IOException;
+import org.junit.jupiter.api.Assertions;
+import ru.leo.lsm.helper.DaoFactory;
+import ru.leo.lsm.helper.DaoTest;
+
+public class EstimateTest extends BaseTest {
+
+    @DaoTest
+    void memory(Dao<String, Entry<String>> dao) throws IOException {
+        for (int i = 0; i < 100; i++) {
+            dao.upsert(entryAt(i));
+        }
+        dao.upsert(entry(keyAt(5), null));
+
+        // Memtable is not scanned, it is counted whole by tracked sizes, if it has keys in range
+        Assertions.assertEquals(101, dao.estimateCount(null, null));
+        Assertions.assertEquals(101, dao.estimateCount(keyAt(10), keyAt(20)));
+        Assertions.assertEquals(0, dao.estimateCount(keyAt(20), keyAt(10)));
+        Assertions.assertEquals(0, dao.estimateCount(keyAt(100), null));
+        // Sizes of entrys in table format: lengths, key and value
+        long bytes = 2 * Integer.BYTES + keyAt(5).length();
+        for (int i = 0; i < 100; i++) {
+            bytes += 2 * Integer.BYTES + keyAt(i).length() + valueAt(i).length();
+        }
+        Assertions.assertEquals(bytes, dao.estimateBytes(keyAt(10), keyAt(20)));
+        Assertions.assertEquals(0, dao.estimateBytes(keyAt(100), null));
+    }
+
+    @DaoTest
+    void tables(Dao<String, Entry<String>> dao) throws IOException {
+        int count = 20_000;
+        entries(count).forEach(dao::upsert);
+        dao.close();
+        dao = DaoFactory.reopen(dao);
+
+        assertAbout(count, dao.estimateCount(null, null));
+        assertAbout(count / 2, dao.estimateCount(keyAt(count / 4), keyAt(3 * count / 4)));
+        assertAbout(dao.estimateBytes(null, null) / 2, dao.estimateBytes(keyAt(count / 2), null));
+        Assertions.assertEquals(0, dao.estimateCount(keyAt(count), null));
+        Assertions.assertEquals(0, dao.estimateBytes(keyAt(count), null));
+
+        // Overwrites are counted in every table, until compaction
+        for (int i = 0; i < count; i++) {
+            dao.upsert(entry(keyAt(i), "new" + i));
+        }
+        dao.close();
+        dao = DaoFactory.reopen(dao);
+        assertAbout(2 * count, dao.estimateCount(null, null));
+
+        dao.compact();
+        dao.close();
+        dao = DaoFactory.reopen(dao);
+        assertAbout(count, dao.estimateCount(null, null));
+    }
+
+    // Block tables are estimated by blocks, so error is small for ranges of many blocks
+    private static void assertAbout(long expected, long estimated) {
+        Assertions.assertTrue(Math.abs(expected - estimated) <= expected / 20,
+            "Expected about " + expected + ", but was " + estimated);
+    }
+}
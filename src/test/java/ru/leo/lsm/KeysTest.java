@@ -0,0 +1,73 @@
+package ru.leo.lsm;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import org.junit.jupiter.api.Assertions;
+import ru.leo.lsm.helper.DaoFactory;
+import ru.leo.lsm.helper.DaoStringFactory;
+import ru.leo.lsm.helper.DaoTest;
+import ru.leo.lsm.internal.LSMDao;
+
+public class KeysTest extends BaseTest {
+
+    @DaoTest
+    void keysOfRange(Dao<String, Entry<String>> dao) throws IOException {
+        for (int i = 0; i < 1_000; i++) {
+            dao.upsert(entryAt(i));
+        }
+        dao.close();
+        dao = DaoFactory.reopen(dao);
+        for (int i = 0; i < 1_000; i += 3) {
+            dao.upsert(entry(keyAt(i), null));
+        }
+        dao.close();
+        dao = DaoFactory.reopen(dao);
+        dao.upsert(entry(keyAt(3), "back"));
+
+        String[][] ranges = {{null, null}, {keyAt(10), keyAt(500)}, {keyAt(999), null}, {keyAt(2_000), null}};
+        for (String[] range : ranges) {
+            List<String> expected = new ArrayList<>();
+            dao.get(range[0], range[1]).forEachRemaining(entry -> expected.add(entry.key()));
+            List<String> keys = new ArrayList<>();
+            dao.keys(range[0], range[1]).forEachRemaining(keys::add);
+            Assertions.assertEquals(expected, keys);
+        }
+    }
+
+    @DaoTest
+    void valuesAreNotRead(Dao<String, Entry<String>> dao) throws IOException {
+        Config config = DaoFactory.extractConfig(dao);
+        dao.close();
+        DaoStringFactory factory = new DaoStringFactory();
+        String bigValue = "v".repeat(4096);
+        try (LSMDao rawDao = (LSMDao) factory.createDao(config)) {
+            for (int i = 0; i < 1_000; i++) {
+                rawDao.upsert(new BaseEntry<>(factory.fromString(keyAt(i)), factory.fromString(bigValue + i)));
+            }
+        }
+
+        try (LSMDao rawDao = (LSMDao) factory.createDao(config)) {
+            int count = 0;
+            for (Iterator<ByteBuffer> keys = rawDao.keys(null, null); keys.hasNext(); keys.next()) {
+                count++;
+            }
+            Assertions.assertEquals(1_000, count);
+            // Blocks with values were not decoded in cache
+            Assertions.assertEquals(0, rawDao.getBlockCacheStats().misses());
+            Assertions.assertEquals(0, rawDao.getBlockCacheStats().sizeBytes());
+        }
+
+        // Without cache values of iterated entrys are read, when they are needed
+        Config noCache = config.withBlockCache(0, Config.BlockCacheEviction.LRU);
+        try (LSMDao rawDao = (LSMDao) factory.createDao(noCache)) {
+            List<Entry<ByteBuffer>> entrys = new ArrayList<>();
+            rawDao.get(null, null).forEachRemaining(entrys::add);
+            for (int i = entrys.size() - 1; i >= 0; i--) {
+                Assertions.assertEquals(bigValue + i, factory.toString(entrys.get(i).value()));
+            }
+        }
+    }
+}
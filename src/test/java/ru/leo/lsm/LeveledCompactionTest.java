@@ -0,0 +1,168 @@
+package ru.leo.lsm;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.io.TempDir;
+import ru.leo.lsm.helper.DaoFactory;
+import ru.leo.lsm.helper.DaoStringFactory;
+import ru.leo.lsm.helper.DaoTest;
+
+public class LeveledCompactionTest extends BaseTest {
+
+    @DaoTest
+    void overwritesAndDeletesAcrossLevels(Dao<String, Entry<String>> dao) throws IOException {
+        Config config = DaoFactory.extractConfig(dao).withLeveledCompaction(2, 8 * 1024, 2);
+        dao.close();
+        DaoStringFactory factory = new DaoStringFactory();
+        // Data is many times greater than level 1, so tombstones of upper levels hide values of deeper ones
+        Map<String, String> expected = new TreeMap<>();
+        Random random = new Random(7);
+        for (int round = 0; round < 20; round++) {
+            dao = factory.createStringDao(config);
+            for (int i = 0; i < 300; i++) {
+                String key = keyAt(random.nextInt(2_000));
+                if (random.nextInt(5) == 0) {
+                    dao.upsert(entry(key, null));
+                    expected.remove(key);
+                } else {
+                    String value = valueAt(i) + "_" + round;
+                    dao.upsert(entry(key, value));
+                    expected.put(key, value);
+                }
+            }
+            dao.close();
+            if (round % 3 == 2) {
+                dao = factory.createStringDao(config);
+                dao.compact();
+                dao.close();
+            }
+        }
+
+        dao = factory.createStringDao(config);
+        List<Entry<String>> entries = new ArrayList<>();
+        expected.forEach((key, value) -> entries.add(entry(key, value)));
+        assertSame(dao.all(), entries);
+        for (int i = 0; i < 2_000; i += 13) {
+            Entry<String> found = dao.get(keyAt(i));
+            Assertions.assertEquals(expected.get(keyAt(i)), found == null ? null : found.value());
+        }
+        dao.close();
+
+        // Levels are split in tables of about levelTableBytes
+        Assertions.assertTrue(countFiles(config.basePath(), "*daoIndex.bin") > 4);
+    }
+
+    @DaoTest
+    void manualCompactionMergesAllLevels(Dao<String, Entry<String>> dao) throws IOException {
+        Config config = DaoFactory.extractConfig(dao);
+        Config leveled = config.withLeveledCompaction(2, 8 * 1024, 2);
+        dao.close();
+        DaoStringFactory factory = new DaoStringFactory();
+        Map<String, String> expected = new TreeMap<>();
+        for (int round = 0; round < 6; round++) {
+            dao = factory.createStringDao(leveled);
+            for (int i = round; i < 2_000; i += 3) {
+                String key = keyAt(i);
+                if (i % 5 == round % 5) {
+                    dao.upsert(entry(key, null));
+                    expected.remove(key);
+                } else {
+                    String value = valueAt(i) + "_" + round;
+                    dao.upsert(entry(key, value));
+                    expected.put(key, value);
+                }
+            }
+            dao.close();
+        }
+        Assertions.assertTrue(countFiles(config.basePath(), "[0-9]*daoIndex.bin") > 1);
+
+        // Tables of all levels are merged in one table by default style
+        dao = factory.createStringDao(config);
+        dao.compact();
+        dao.close();
+        Assertions.assertEquals(1, countFiles(config.basePath(), "[0-9]*daoIndex.bin"));
+
+        dao = factory.createStringDao(config);
+        List<Entry<String>> entries = new ArrayList<>();
+        expected.forEach((key, value) -> entries.add(entry(key, value)));
+        assertSame(dao.all(), entries);
+        // Tombstones are dropped, so table has only live keys
+        Assertions.assertEquals(expected.size(), dao.estimateCount(null, null), expected.size() / 20.0);
+        dao.close();
+    }
+
+    @DaoTest
+    void subcompactionsWriteTablesOfRanges(Dao<String, Entry<String>> dao) throws IOException {
+        Config config = DaoFactory.extractConfig(dao).withLeveledCompaction(4, 64 * 1024 * 1024, 10)
+            .withSubcompactions(4);
+        dao.close();
+        DaoStringFactory factory = new DaoStringFactory();
+        Map<String, String> expected = new TreeMap<>();
+        for (int round = 0; round < 3; round++) {
+            dao = factory.createStringDao(config);
+            for (int i = round; i < 3_000; i += 2) {
+                String key = keyAt(i);
+                if (i % 7 == round) {
+                    dao.upsert(entry(key, null));
+                    expected.remove(key);
+                } else {
+                    String value = valueAt(i) + "_" + round;
+                    dao.upsert(entry(key, value));
+                    expected.put(key, value);
+                }
+            }
+            dao.close();
+        }
+
+        dao = factory.createStringDao(config);
+        dao.compact();
+        dao.close();
+        // Level 1 fits in one table, but every range is written in its own table
+        Assertions.assertEquals(4, countFiles(config.basePath(), "[0-9]*daoIndex.bin"));
+
+        dao = factory.createStringDao(config);
+        List<Entry<String>> entries = new ArrayList<>();
+        expected.forEach((key, value) -> entries.add(entry(key, value)));
+        assertSame(dao.all(), entries);
+        dao.close();
+    }
+
+    @DaoTest
+    void unlistedTablesAreDeleted(Dao<String, Entry<String>> dao, @TempDir Path lostDir) throws IOException {
+        dao.upsert(entryAt(1));
+        dao.close();
+
+        // Table is saved, but is not added in manifest before crash
+        Config config = DaoFactory.extractConfig(dao);
+        Config lost = new Config(lostDir, config.flushThresholdBytes());
+        Dao<String, Entry<String>> lostDao = new DaoStringFactory().createStringDao(lost);
+        lostDao.upsert(entryAt(2));
+        lostDao.close();
+        for (String fileName : List.of("daoIndex.bin", "daoMem.bin")) {
+            Files.copy(lost.basePath().resolve("0" + fileName), config.basePath().resolve("100" + fileName));
+        }
+
+        dao = DaoFactory.reopen(dao);
+        assertSame(dao.all(), entryAt(1));
+        Assertions.assertFalse(Files.exists(config.basePath().resolve("100daoIndex.bin")));
+        Assertions.assertFalse(Files.exists(config.basePath().resolve("100daoMem.bin")));
+    }
+
+    private static int countFiles(Path basePath, String glob) throws IOException {
+        int count = 0;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(basePath, glob)) {
+            for (Path ignored : files) {
+                count++;
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,63 @@
+package ru.leo.lsm;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import org.junit.jupiter.api.Assertions;
+import ru.leo.lsm.helper.DaoFactory;
+import ru.leo.lsm.helper.DaoTest;
+
+public class MultiGetTest extends BaseTest {
+
+    @DaoTest
+    void memoryAndDisk(Dao<String, Entry<String>> dao) throws IOException {
+        // Oldest table has all even keys, newer table removes and replaces some of them, memory adds odd keys
+        for (int i = 0; i < 1_000; i += 2) {
+            dao.upsert(entryAt(i));
+        }
+        dao.close();
+        dao = DaoFactory.reopen(dao);
+        for (int i = 0; i < 1_000; i += 10) {
+            dao.upsert(entry(keyAt(i), null));
+            dao.upsert(entry(keyAt(i + 2), "new" + i));
+        }
+        dao.close();
+        dao = DaoFactory.reopen(dao);
+        for (int i = 1; i < 1_000; i += 4) {
+            dao.upsert(entryAt(i));
+        }
+
+        List<String> keys = new ArrayList<>();
+        for (int i = 0; i < 1_100; i++) {
+            keys.add(keyAt(i));
+        }
+        // Order and duplicates of keys don't matter
+        keys.addAll(keys.subList(0, 100));
+        Collections.shuffle(keys, new Random(7));
+
+        Map<String, Entry<String>> result = dao.getAll(keys);
+        List<Entry<String>> expected = new ArrayList<>();
+        for (int i = 0; i < 1_100; i++) {
+            Entry<String> entry = dao.get(keyAt(i));
+            if (entry != null) {
+                expected.add(entry);
+            }
+        }
+        assertSame(result.values().iterator(), expected);
+        Assertions.assertEquals(List.copyOf(result.keySet()), expected.stream().map(Entry::key).toList());
+    }
+
+    @DaoTest
+    void absentKeys(Dao<String, Entry<String>> dao) throws IOException {
+        Assertions.assertTrue(dao.getAll(List.of()).isEmpty());
+        Assertions.assertTrue(dao.getAll(List.of(keyAt(1), keyAt(2))).isEmpty());
+
+        dao.upsert(entryAt(1));
+        dao.close();
+        dao = DaoFactory.reopen(dao);
+        Assertions.assertEquals(Map.of(keyAt(1), entryAt(1)), dao.getAll(List.of(keyAt(0), keyAt(1), keyAt(2))));
+    }
+}
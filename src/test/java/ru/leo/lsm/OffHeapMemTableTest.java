@@ -0,0 +1,52 @@
+package ru.leo.lsm;
+
+import java.io.IOException;
+import java.util.List;
+import ru.leo.lsm.helper.DaoFactory;
+import ru.leo.lsm.helper.DaoStringFactory;
+import ru.leo.lsm.helper.DaoTest;
+
+public class OffHeapMemTableTest extends BaseTest {
+
+    @DaoTest
+    void upsertAndFlush(Dao<String, Entry<String>> dao) throws Exception {
+        int count = 10_000;
+        List<Entry<String>> entries = entries(count);
+        // Small arenas and threshold, so there are many arenas and flushes
+        try (Dao<String, Entry<String>> offHeapDao = createOffHeapDao(dao, 64 * 1024, 4 * 1024)) {
+            runInParallel(10, count, i -> offHeapDao.upsert(entries.get(i))).close();
+            assertSame(offHeapDao.all(), entries);
+            assertValueAt(offHeapDao, count / 2);
+        }
+    }
+
+    @DaoTest
+    void removeAndReplace(Dao<String, Entry<String>> dao) throws Exception {
+        Dao<String, Entry<String>> offHeapDao = createOffHeapDao(dao, 1024 * 1024, 64 * 1024);
+        offHeapDao.upsert(entryAt(1));
+        offHeapDao.upsert(entryAt(2));
+        offHeapDao.upsert(entry(keyAt(1), null));
+        offHeapDao.upsert(entry(keyAt(2), "replaced"));
+        // Bigger than arena
+        String bigValue = "V".repeat(128 * 1024);
+        offHeapDao.upsert(entry(keyAt(3), bigValue));
+
+        assertSame(offHeapDao.all(), entry(keyAt(2), "replaced"), entry(keyAt(3), bigValue));
+        offHeapDao.close();
+
+        offHeapDao = DaoFactory.reopen(offHeapDao);
+        assertSame(offHeapDao.all(), entry(keyAt(2), "replaced"), entry(keyAt(3), bigValue));
+        offHeapDao.close();
+    }
+
+    private static Dao<String, Entry<String>> createOffHeapDao(
+        Dao<String, Entry<String>> dao,
+        long flushThreshold,
+        int arenaBytes
+    ) throws IOException {
+        Config config = DaoFactory.extractConfig(dao);
+        dao.close();
+        return new DaoStringFactory().createStringDao(new Config(config.basePath(), flushThreshold)
+            .withMemTable(Config.MemTableType.OFF_HEAP, arenaBytes));
+    }
+}
@@ -0,0 +1,67 @@
+package ru.leo.lsm;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.stream.StreamSupport;
+import org.junit.jupiter.api.Assertions;
+import ru.leo.lsm.helper.DaoFactory;
+import ru.leo.lsm.helper.DaoTest;
+
+public class PartitionScanTest extends BaseTest {
+
+    @DaoTest
+    void partitionsAreOrdered(Dao<String, Entry<String>> dao) throws IOException {
+        dao = fill(dao);
+        String[][] ranges = {{null, null}, {keyAt(1_000), keyAt(9_000)}, {keyAt(5), keyAt(6)}, {keyAt(20_000), null}};
+        for (String[] range : ranges) {
+            List<Iterator<Entry<String>>> partitions = dao.partitions(range[0], range[1], 8);
+            Assertions.assertTrue(partitions.size() <= 8);
+            List<Entry<String>> joined = new ArrayList<>();
+            for (Iterator<Entry<String>> partition : partitions) {
+                partition.forEachRemaining(joined::add);
+            }
+            List<Entry<String>> expected = new ArrayList<>();
+            dao.get(range[0], range[1]).forEachRemaining(expected::add);
+            assertSame(joined.iterator(), expected);
+        }
+        // Tables have enough keys for all partitions
+        Assertions.assertEquals(8, dao.partitions(null, null, 8).size());
+    }
+
+    @DaoTest
+    void parallelStream(Dao<String, Entry<String>> dao) throws IOException {
+        dao = fill(dao);
+        List<Entry<String>> expected = new ArrayList<>();
+        dao.all().forEachRemaining(expected::add);
+
+        List<Entry<String>> streamed = StreamSupport.stream(dao.spliterator(null, null, 16), true).toList();
+        Assertions.assertEquals(expected, streamed);
+        long valuesLength = StreamSupport.stream(dao.spliterator(keyAt(100), null, 16), true)
+            .mapToLong(entry -> entry.value().length())
+            .sum();
+        Assertions.assertEquals(
+            expected.stream().filter(e -> e.key().compareTo(keyAt(100)) >= 0).mapToLong(e -> e.value().length()).sum(),
+            valuesLength
+        );
+    }
+
+    private Dao<String, Entry<String>> fill(Dao<String, Entry<String>> dao) throws IOException {
+        // Tables overlap, newer ones remove and replace keys of older ones, memory has the newest
+        for (int i = 0; i < 10_000; i++) {
+            dao.upsert(entryAt(i));
+        }
+        dao.close();
+        dao = DaoFactory.reopen(dao);
+        for (int i = 0; i < 10_000; i += 3) {
+            dao.upsert(i % 2 == 0 ? entry(keyAt(i), "new" + i) : entry(keyAt(i), null));
+        }
+        dao.close();
+        dao = DaoFactory.reopen(dao);
+        for (int i = 5; i < 10_000; i += 101) {
+            dao.upsert(entry(keyAt(i), null));
+        }
+        return dao;
+    }
+}
@@ -97,6 +97,21 @@ public class PersistentRangeTest extends BaseTest {
         sliceAndDice(dao);
     }
 
+    @DaoTest
+    void disjointTables(Dao<String, Entry<String>> dao) throws IOException {
+        // Every table has one key, so range of every table is bound of some query
+        for (int key : DATASET) {
+            dao.upsert(entryAt(key));
+            dao.close();
+            dao = DaoFactory.reopen(dao);
+        }
+
+        sliceAndDice(dao);
+        assertSame(dao.get(keyAt(97)), entryAt(97));
+        assertSame(dao.get(keyAt(96)), null);
+        assertSame(dao.get(keyAt(102)), null);
+    }
+
     @DaoTest
     void mixedMemoryDisk(Dao<String, Entry<String>> dao) throws IOException {
         dao.upsert(entryAt(7));
@@ -55,6 +55,31 @@ public class PersistentTest extends BaseTest {
         }
     }
 
+    @DaoTest
+    void searchInTable(Dao<String, Entry<String>> dao) throws IOException {
+        // Long common prefixes and bytes with high bit, which are less than ascii in byte order
+        final List<Entry<String>> entries =
+            List.of(
+                entry("common_prefix_КЛЮЧ", "value1"),
+                entry("common_prefix_key", "value2"),
+                entry("common_prefix_keyЖ", "value3"),
+                entry("common_prefix_key_1", "value4"));
+        entries.forEach(dao::upsert);
+        dao.close();
+
+        dao = DaoFactory.reopen(dao);
+        for (final Entry<String> entry : entries) {
+            assertSame(dao.get(entry.key()), entry);
+        }
+        Assertions.assertNull(dao.get("common_prefix_ke"));
+        Assertions.assertNull(dao.get("common_prefix_key_"));
+        Assertions.assertNull(dao.get("common_prefix_keyЖЖ"));
+        Assertions.assertNull(dao.get("common_prefix_Я"));
+        assertSame(dao.allFrom("common_prefix_Я"), entries.subList(1, 4));
+        assertSame(dao.allFrom("common_prefix_key_"), entries.subList(3, 4));
+        assertSame(dao.allFrom("common_prefix_key_2"), List.of());
+    }
+
     @DaoTest
     void cleanup(Dao<String, Entry<String>> dao) throws IOException {
         dao.upsert(entryAt(1));
@@ -0,0 +1,117 @@
+package ru.leo.lsm;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import org.junit.jupiter.api.Assertions;
+import ru.leo.lsm.helper.DaoFactory;
+import ru.leo.lsm.helper.DaoStringFactory;
+import ru.leo.lsm.helper.DaoTest;
+import ru.leo.lsm.internal.LSMDao;
+
+public class PrefixScanTest extends BaseTest {
+    private static final char DELIMITER = '\0';
+
+    @DaoTest
+    void memoryAndDisk(Dao<String, Entry<String>> dao) throws IOException {
+        List<Entry<String>> entries = List.of(
+            entry("Ar1" + DELIMITER + "Al11", "15"),
+            entry("Ar1" + DELIMITER + "Al12", "24"),
+            entry("Ar12" + DELIMITER + "Al1", "33"),
+            entry("Ar2" + DELIMITER + "Al21", "49")
+        );
+        dao.upsert(entries.get(0));
+        dao.upsert(entries.get(2));
+        dao.close();
+        dao = DaoFactory.reopen(dao);
+        dao.upsert(entries.get(1));
+        dao.upsert(entries.get(3));
+
+        assertSame(dao.prefix("Ar1" + DELIMITER), entries.get(0), entries.get(1));
+        assertSame(dao.prefix("Ar1"), entries.subList(0, 3));
+        assertSame(dao.prefix("Ar3"), List.of());
+        assertSame(dao.prefix(""), entries);
+
+        dao.upsert(entry(entries.get(1).key(), null));
+        assertSame(dao.prefix("Ar1" + DELIMITER), entries.get(0));
+    }
+
+    @DaoTest
+    void greatestBytes(Dao<String, Entry<String>> dao) throws IOException {
+        // Byte 0x7F is the greatest, so bound of prefix can't be got by increment of the last byte
+        List<Entry<String>> entries = List.of(
+            entry("a", "1"),
+            entry("a\u007f", "2"),
+            entry("a\u007fz", "3"),
+            entry("a\u007f\u007f", "4"),
+            entry("b", "5"),
+            entry("\u007f", "6"),
+            entry("\u007fz", "7")
+        );
+        entries.forEach(dao::upsert);
+        dao.close();
+        dao = DaoFactory.reopen(dao);
+
+        assertSame(dao.prefix("a\u007f"), entries.get(1), entries.get(2), entries.get(3));
+        assertSame(dao.prefix("a"), entries.subList(0, 4));
+        assertSame(dao.prefix("\u007f"), entries.get(5), entries.get(6));
+    }
+
+    @DaoTest
+    void tablesAreSkippedByFilter(Dao<String, Entry<String>> dao) throws IOException {
+        Config config = DaoFactory.extractConfig(dao)
+            .withPrefixExtractor(PrefixExtractor.upToDelimiter((byte) DELIMITER));
+        dao.close();
+        DaoStringFactory factory = new DaoStringFactory();
+        // Every table has every tenth artist, so fences of tables overlap
+        int tables = 10;
+        try (LSMDao rawDao = (LSMDao) factory.createDao(config)) {
+            for (int table = 0; table < tables; table++) {
+                for (int artist = table; artist < 100; artist += tables) {
+                    for (int track = 0; track < 5; track++) {
+                        rawDao.upsert(new BaseEntry<>(
+                            factory.fromString(trackKey(artist, track)), factory.fromString(valueAt(track))));
+                    }
+                }
+                rawDao.flush();
+            }
+        }
+
+        try (LSMDao rawDao = (LSMDao) factory.createDao(config)) {
+            for (int artist = 0; artist < 100; artist += 7) {
+                Iterator<Entry<ByteBuffer>> tracks = rawDao.prefix(factory.fromString(artistKey(artist)));
+                List<String> keys = new ArrayList<>();
+                tracks.forEachRemaining(entry -> keys.add(factory.toString(entry.key())));
+                List<String> expected = new ArrayList<>();
+                for (int track = 0; track < 5; track++) {
+                    expected.add(trackKey(artist, track));
+                }
+                Assertions.assertEquals(expected, keys);
+            }
+            // Most of tables have no artist
+            Assertions.assertTrue(rawDao.getBloomFilterStats().prefixFilterHits() > 10 * (tables - 1) / 2);
+        }
+
+        // Filters of other extractor are not used, but scans are still right
+        Config otherConfig = config.withPrefixExtractor(PrefixExtractor.fixedLength(2));
+        try (LSMDao rawDao = (LSMDao) factory.createDao(otherConfig)) {
+            Iterator<Entry<ByteBuffer>> tracks = rawDao.prefix(factory.fromString(artistKey(42)));
+            int count = 0;
+            for (; tracks.hasNext(); tracks.next()) {
+                count++;
+            }
+            Assertions.assertEquals(5, count);
+            Assertions.assertEquals(0, rawDao.getBloomFilterStats().prefixFilterHits());
+        }
+    }
+
+    private static String artistKey(int artist) {
+        return String.format("Ar%02d", artist) + DELIMITER;
+    }
+
+    private static String trackKey(int artist, int track) {
+        return artistKey(artist) + "T" + track;
+    }
+}
@@ -0,0 +1,114 @@
+package ru.leo.lsm;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import org.junit.jupiter.api.Assertions;
+import ru.leo.lsm.helper.DaoFactory;
+import ru.leo.lsm.helper.DaoTest;
+
+public class SSTableFormatTest extends BaseTest {
+
+    @DaoTest
+    void legacyTablesAreRead(Dao<String, Entry<String>> dao) throws IOException {
+        Config config = DaoFactory.extractConfig(dao);
+        dao.close();
+
+        // Tables of the first format: older has even keys, newer removes 10 and adds odd keys
+        List<Entry<String>> older = entries(100).stream().filter(e -> e.key().endsWith("0")).toList();
+        writeLegacyTable(config.basePath(), 0, older);
+        writeLegacyTable(config.basePath(), 1, List.of(entry(keyAt(10), null), entryAt(11), entryAt(55)));
+
+        dao = DaoFactory.reopen(dao);
+        Assertions.assertNull(dao.get(keyAt(10)));
+        assertValueAt(dao, 20);
+        assertValueAt(dao, 55);
+        Assertions.assertNull(dao.get(keyAt(15)));
+        assertSame(dao.descending(keyAt(11), keyAt(55)), 50, 40, 30, 20, 11);
+        @SuppressWarnings("unchecked")
+        SeekableIterator<String, Entry<String>> iterator = (SeekableIterator<String, Entry<String>>) dao.all();
+        iterator.seek(keyAt(21));
+        Assertions.assertEquals(entryAt(30), iterator.next());
+        iterator.seek(keyAt(52));
+        assertSame(iterator, 55, 60, 70, 80, 90);
+        // Dense index of legacy tables gives exact counts, tombstone is counted too
+        Assertions.assertEquals(older.size() + 3, dao.estimateCount(null, null));
+        Assertions.assertEquals(5, dao.estimateCount(keyAt(11), keyAt(55)));
+
+        // New table of block format is read together with legacy ones, compaction rewrites all of them
+        dao.upsert(entryAt(99));
+        dao.flush();
+        dao.compact();
+        dao.close();
+
+        dao = DaoFactory.reopen(dao);
+        assertSame(dao.all(), 0, 11, 20, 30, 40, 50, 55, 60, 70, 80, 90, 99);
+    }
+
+    @DaoTest
+    void sharedPrefixesAreCompressed(Dao<String, Entry<String>> dao) throws IOException {
+        String prefix = "artist_with_long_name/album_with_long_name/track_";
+        int count = 10_000;
+        long keysBytes = 0;
+        for (int i = 0; i < count; i++) {
+            Entry<String> entry = entry(prefix + String.format("%05d", i), "v");
+            keysBytes += entry.key().length();
+            dao.upsert(entry);
+        }
+        dao.close();
+
+        Config config = DaoFactory.extractConfig(dao);
+        Assertions.assertTrue(filesSize(config.basePath(), "*daoMem.bin") < keysBytes / 4);
+        // Index keeps one key per block, not offset per entry
+        Assertions.assertTrue(filesSize(config.basePath(), "*daoIndex.bin") < count);
+
+        dao = DaoFactory.reopen(dao);
+        Assertions.assertEquals("v", dao.get(prefix + "05000").value());
+        Assertions.assertNull(dao.get(prefix + "5"));
+        Assertions.assertEquals(prefix + "09990", dao.allFrom(prefix + "0999").next().key());
+    }
+
+    private static void writeLegacyTable(Path basePath, int n, List<Entry<String>> entries) throws IOException {
+        ByteBuffer index = ByteBuffer.allocate((entries.size() + 1) * Integer.BYTES);
+        ByteBuffer memory = ByteBuffer.allocate(64 * 1024);
+        for (Entry<String> entry : entries) {
+            index.putInt(memory.position());
+            putBytes(memory, entry.key());
+            putBytes(memory, entry.value());
+        }
+        index.putInt(entries.size());
+
+        Files.write(basePath.resolve(n + "daoIndex.bin"), index.array());
+        Files.write(basePath.resolve(n + "daoMem.bin"), slice(memory.flip()));
+    }
+
+    private static byte[] slice(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(buffer.position(), bytes);
+        return bytes;
+    }
+
+    private static void putBytes(ByteBuffer buffer, String data) {
+        if (data == null) {
+            buffer.putInt(-1);
+            return;
+        }
+        byte[] bytes = data.getBytes(StandardCharsets.UTF_8);
+        buffer.putInt(bytes.length);
+        buffer.put(bytes);
+    }
+
+    private static long filesSize(Path basePath, String glob) throws IOException {
+        long size = 0;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(basePath, glob)) {
+            for (Path file : files) {
+                size += Files.size(file);
+            }
+        }
+        return size;
+    }
+}
@@ -0,0 +1,153 @@
+package ru.leo.lsm;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Random;
+import ru.leo.lsm.internal.iterator.IndexedPeekIterator;
+import ru.leo.lsm.internal.iterator.TablesIterator;
+
+/**
+ * Compares merge of many sorted sources by loser tree ({@link TablesIterator}) with merge by binary heap.
+ * It is not a test, run main with number of sources and entrys per source as arguments (32 and 50000 by default).
+ */
+public final class ScanBenchmark {
+    private static final int WARMUP_ROUNDS = 5;
+    private static final int ROUNDS = 10;
+
+    private ScanBenchmark() {
+    }
+
+    public static void main(String[] args) {
+        int sourcesC = args.length > 0 ? Integer.parseInt(args[0]) : 32;
+        int entrysC = args.length > 1 ? Integer.parseInt(args[1]) : 50_000;
+        List<List<Entry<ByteBuffer>>> sources = generate(sourcesC, entrysC);
+
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            scan(sources, true);
+            scan(sources, false);
+        }
+
+        long treeNanos = 0;
+        long heapNanos = 0;
+        long scanned = 0;
+        for (int i = 0; i < ROUNDS; i++) {
+            long start = System.nanoTime();
+            scanned = scan(sources, true);
+            treeNanos += System.nanoTime() - start;
+
+            start = System.nanoTime();
+            long heapScanned = scan(sources, false);
+            heapNanos += System.nanoTime() - start;
+            if (heapScanned != scanned) {
+                throw new IllegalStateException("Merges gave different entrys: " + scanned + " " + heapScanned);
+            }
+        }
+
+        System.out.printf("sources %d, entrys %d%n", sourcesC, scanned);
+        System.out.printf("loser tree  %.1f ns/entry%n", (double) treeNanos / ROUNDS / scanned);
+        System.out.printf("binary heap %.1f ns/entry%n", (double) heapNanos / ROUNDS / scanned);
+    }
+
+    // Keys of sources are interleaved, every tenth key of source is also in other source
+    private static List<List<Entry<ByteBuffer>>> generate(int sourcesC, int entrysC) {
+        Random random = new Random(42);
+        List<List<Entry<ByteBuffer>>> sources = new ArrayList<>(sourcesC);
+        ByteBuffer value = ByteBuffer.wrap(new byte[16]);
+        for (int source = 0; source < sourcesC; source++) {
+            List<Entry<ByteBuffer>> entrys = new ArrayList<>(entrysC);
+            for (int i = 0; i < entrysC; i++) {
+                int keySource = i % 10 == 0 ? random.nextInt(sourcesC) : source;
+                long key = (long) i * sourcesC + keySource;
+                entrys.add(new BaseEntry<>(ByteBuffer.wrap(String.format("key%012d", key).getBytes()), value));
+            }
+            sources.add(entrys);
+        }
+        return sources;
+    }
+
+    private static long scan(List<List<Entry<ByteBuffer>>> sources, boolean loserTree) {
+        List<IndexedPeekIterator> iterators = new ArrayList<>(sources.size());
+        for (int i = 0; i < sources.size(); i++) {
+            iterators.add(new IndexedPeekIterator(sources.get(i).iterator(), i));
+        }
+
+        Iterator<Entry<ByteBuffer>> merge = loserTree
+            ? new TablesIterator(iterators, Comparator.naturalOrder())
+            : new HeapMerge(iterators);
+        long count = 0;
+        while (merge.hasNext()) {
+            merge.next();
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Previous merge of {@link TablesIterator}: remove and add of heap for every entry and every duplicate.
+     */
+    private static final class HeapMerge implements Iterator<Entry<ByteBuffer>> {
+        private final PriorityQueue<IndexedPeekIterator> binaryHeap =
+            new PriorityQueue<>(Comparator.comparing(it -> it.peek().key()));
+        private Entry<ByteBuffer> next;
+
+        HeapMerge(List<IndexedPeekIterator> iterators) {
+            for (IndexedPeekIterator iterator : iterators) {
+                if (iterator.peek() != null) {
+                    binaryHeap.add(iterator);
+                }
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (next == null) {
+                next = tryToGetNext();
+            }
+            return next != null;
+        }
+
+        @Override
+        public Entry<ByteBuffer> next() {
+            hasNext();
+            Entry<ByteBuffer> ans = next;
+            next = null;
+            return ans;
+        }
+
+        private Entry<ByteBuffer> tryToGetNext() {
+            while (!binaryHeap.isEmpty()) {
+                IndexedPeekIterator freshIterator = binaryHeap.remove();
+                Entry<ByteBuffer> freshNext = freshIterator.next();
+
+                while (!binaryHeap.isEmpty() && freshNext.key().equals(binaryHeap.element().peek().key())) {
+                    IndexedPeekIterator dublicateIt = binaryHeap.remove();
+                    Entry<ByteBuffer> dublicateNext = dublicateIt.next();
+                    if (dublicateIt.getStoragePartN() > freshIterator.getStoragePartN()) {
+                        IndexedPeekIterator temp = freshIterator;
+                        freshIterator = dublicateIt;
+                        dublicateIt = temp;
+
+                        freshNext = dublicateNext;
+                    }
+
+                    if (dublicateIt.peek() != null) {
+                        binaryHeap.add(dublicateIt);
+                    }
+                }
+
+                if (freshIterator.peek() != null) {
+                    binaryHeap.add(freshIterator);
+                }
+
+                if (freshNext.value() != null) {
+                    return freshNext;
+                }
+            }
+            return null;
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package ru.leo.lsm;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import org.junit.jupiter.api.Assertions;
+import ru.leo.lsm.helper.DaoFactory;
+import ru.leo.lsm.helper.DaoStringFactory;
+import ru.leo.lsm.helper.DaoTest;
+
+public class SeekTest extends BaseTest {
+
+    @DaoTest
+    void skipScan(Dao<String, Entry<String>> dao) throws IOException {
+        // Keys are spread over tables and memtable, some of them are removed or overwritten
+        for (int table = 0; table < 3; table++) {
+            for (int i = table; i < 3_000; i += 3) {
+                dao.upsert(entryAt(i));
+            }
+            dao.close();
+            dao = DaoFactory.reopen(dao);
+        }
+        for (int i = 0; i < 3_000; i += 7) {
+            dao.upsert(entry(keyAt(i), null));
+        }
+        dao.upsert(entry(keyAt(50), "new"));
+
+        Config config = DaoFactory.extractConfig(dao);
+        dao.close();
+        // Blocks are read by cache and by cursor without cache
+        for (Config readConfig : List.of(config, config.withBlockCache(0, Config.BlockCacheEviction.LRU))) {
+            dao = new DaoStringFactory().createStringDao(readConfig);
+            dao.upsert(entry(keyAt(50), "new"));
+            for (int i = 0; i < 3_000; i += 7) {
+                dao.upsert(entry(keyAt(i), null));
+            }
+
+            SeekableIterator<String, Entry<String>> iterator = seekable(dao.get(keyAt(10), keyAt(2_500)));
+            Assertions.assertEquals(entryAt(10), iterator.next());
+            // Seek back or to the next key doesn't move iterator
+            iterator.seek(keyAt(5));
+            iterator.seek(keyAt(11));
+            Assertions.assertEquals(entryAt(11), iterator.next());
+
+            List<Integer> expected = new ArrayList<>();
+            List<Integer> found = new ArrayList<>();
+            for (int i = 100; i < 3_000; i += 97) {
+                int present = i % 7 == 0 ? i + 1 : i;
+                if (present < 2_500) {
+                    expected.add(present);
+                }
+                iterator.seek(keyAt(i));
+                if (iterator.hasNext()) {
+                    Entry<String> entry = iterator.next();
+                    Assertions.assertEquals(valueAt(Integer.parseInt(entry.key().substring(1))), entry.value());
+                    found.add(Integer.parseInt(entry.key().substring(1)));
+                }
+            }
+            Assertions.assertEquals(expected, found);
+            Assertions.assertFalse(iterator.hasNext());
+
+            iterator = seekable(dao.get(null, null));
+            iterator.seek(keyAt(50));
+            Assertions.assertEquals(entry(keyAt(50), "new"), iterator.next());
+            dao.close();
+        }
+    }
+
+    @DaoTest
+    void memoryOnly(Dao<String, Entry<String>> dao) throws IOException {
+        for (int i = 0; i < 100; i++) {
+            dao.upsert(entryAt(i));
+        }
+
+        SeekableIterator<String, Entry<String>> iterator = seekable(dao.get(keyAt(10), keyAt(90)));
+        iterator.seek(keyAt(42));
+        Assertions.assertEquals(entryAt(42), iterator.next());
+        iterator.seek(keyAt(88));
+        assertSame(iterator, 88, 89);
+        iterator.seek(keyAt(95));
+        Assertions.assertFalse(iterator.hasNext());
+    }
+
+    @SuppressWarnings("unchecked")
+    private static SeekableIterator<String, Entry<String>> seekable(Iterator<Entry<String>> iterator) {
+        return (SeekableIterator<String, Entry<String>>) iterator;
+    }
+}
@@ -0,0 +1,80 @@
+package ru.leo.lsm;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.junit.jupiter.api.Assertions;
+import ru.leo.lsm.helper.DaoFactory;
+import ru.leo.lsm.helper.DaoStringFactory;
+import ru.leo.lsm.helper.DaoTest;
+
+public class WriteBatchTest extends BaseTest {
+
+    @DaoTest
+    void putAndDelete(Dao<String, Entry<String>> dao) throws IOException {
+        dao.upsert(entryAt(1));
+        dao.upsert(entryAt(2));
+
+        dao.write(new WriteBatch<String>()
+            .delete(keyAt(1))
+            .put(keyAt(3), valueAt(3))
+            .put(keyAt(4), "overwritten")
+            .put(keyAt(4), valueAt(4)));
+        assertSame(dao.all(), 2, 3, 4);
+
+        dao.close();
+        dao = DaoFactory.reopen(dao);
+        assertSame(dao.all(), 2, 3, 4);
+    }
+
+    @DaoTest
+    void readersSeeWholeBatch(Dao<String, Entry<String>> dao) throws Exception {
+        Config config = DaoFactory.extractConfig(dao);
+        dao.close();
+
+        int keys = 100;
+        int batches = 500;
+        // Batches are bigger than threshold, so every batch gets own memtable
+        Dao<String, Entry<String>> batchDao = new DaoStringFactory().createStringDao(
+            new Config(config.basePath(), 2 * 1024));
+        AtomicBoolean writing = new AtomicBoolean(true);
+        runInParallel(5, 5, task -> {
+            if (task == 0) {
+                for (int batchN = 0; batchN < batches; batchN++) {
+                    WriteBatch<String> batch = new WriteBatch<>();
+                    for (int i = 0; i < keys; i++) {
+                        batch.put(keyAt(i), valueAt(batchN));
+                    }
+                    batchDao.write(batch);
+                }
+                writing.set(false);
+                return;
+            }
+
+            while (writing.get()) {
+                assertSameValues(batchDao.all(), keys);
+                Entry<String> first = batchDao.get(keyAt(0));
+                Entry<String> last = batchDao.get(keyAt(keys - 1));
+                if (first != null && last != null) {
+                    // Later batch may be applied between two reads, but not the earlier one
+                    Assertions.assertTrue(first.value().compareTo(last.value()) <= 0);
+                }
+            }
+        }).close();
+
+        assertSameValues(batchDao.all(), keys);
+        batchDao.close();
+    }
+
+    private void assertSameValues(Iterator<Entry<String>> iterator, int keys) {
+        List<Entry<String>> entries = list(iterator);
+        if (entries.isEmpty()) {
+            return;
+        }
+        Assertions.assertEquals(keys, entries.size());
+        for (Entry<String> entry : entries) {
+            Assertions.assertEquals(entries.getFirst().value(), entry.value());
+        }
+    }
+}
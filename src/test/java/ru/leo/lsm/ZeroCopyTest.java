@@ -0,0 +1,94 @@
+package ru.leo.lsm;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ReadOnlyBufferException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.Assertions;
+import ru.leo.lsm.helper.DaoFactory;
+import ru.leo.lsm.helper.DaoStringFactory;
+import ru.leo.lsm.helper.DaoTest;
+import ru.leo.lsm.internal.LSMDao;
+
+public class ZeroCopyTest extends BaseTest {
+
+    @DaoTest
+    void valuesAreViewsOfFile(Dao<String, Entry<String>> dao) throws IOException {
+        Config config = DaoFactory.extractConfig(dao).withZeroCopyReads(true);
+        dao.close();
+        DaoStringFactory factory = new DaoStringFactory();
+        try (LSMDao rawDao = (LSMDao) factory.createDao(config)) {
+            for (int i = 0; i < 1_000; i++) {
+                rawDao.upsert(new BaseEntry<>(factory.fromString(keyAt(i)), factory.fromString(valueAt(i))));
+            }
+        }
+
+        // Views are given by cached blocks and by tables without cache
+        for (Config readConfig : List.of(config, config.withBlockCache(0, Config.BlockCacheEviction.LRU))) {
+            try (LSMDao rawDao = (LSMDao) factory.createDao(readConfig)) {
+                for (int i = 0; i < 1_000; i += 7) {
+                    Entry<ByteBuffer> entry = rawDao.get(factory.fromString(keyAt(i)));
+                    Assertions.assertEquals(valueAt(i), factory.toString(entry.value()));
+                    Assertions.assertTrue(entry.value().isDirect());
+                    Assertions.assertThrows(ReadOnlyBufferException.class, () -> entry.value().put(0, (byte) 0));
+                }
+            }
+        }
+    }
+
+    @DaoTest
+    void viewsSurviveCompaction(Dao<String, Entry<String>> dao) throws Exception {
+        Config config = DaoFactory.extractConfig(dao).withZeroCopyReads(true);
+        dao.close();
+        DaoStringFactory factory = new DaoStringFactory();
+        int count = 2_000;
+        try (LSMDao rawDao = (LSMDao) factory.createDao(config)) {
+            for (int i = 0; i < count; i++) {
+                rawDao.upsert(new BaseEntry<>(factory.fromString(keyAt(i)), factory.fromString(valueAt(i))));
+                if (i % 500 == 0) {
+                    rawDao.flush();
+                }
+            }
+        }
+
+        try (LSMDao rawDao = (LSMDao) factory.createDao(config)) {
+            List<Entry<ByteBuffer>> held = new ArrayList<>();
+            for (int i = 0; i < count; i += 100) {
+                held.add(rawDao.get(factory.fromString(keyAt(i))));
+            }
+            Iterator<Entry<ByteBuffer>> iterator = rawDao.get(null, null);
+            for (int i = 0; i < count / 2; i++) {
+                Assertions.assertEquals(keyAt(i), factory.toString(iterator.next().key()));
+            }
+
+            // Files of held tables are replaced by compaction in background
+            rawDao.compact();
+            while (Files.exists(config.basePath().resolve("1daoIndex.bin"))) {
+                Thread.sleep(10);
+            }
+
+            for (int i = 0; i < held.size(); i++) {
+                Assertions.assertEquals(valueAt(i * 100), factory.toString(held.get(i).value()));
+            }
+            for (int i = count / 2; i < count; i++) {
+                Entry<ByteBuffer> entry = iterator.next();
+                Assertions.assertEquals(keyAt(i), factory.toString(entry.key()));
+                Assertions.assertEquals(valueAt(i), factory.toString(entry.value()));
+            }
+            Assertions.assertFalse(iterator.hasNext());
+        }
+
+        // Files of compacted tables are deleted at least on load
+        Dao<String, Entry<String>> reopened = factory.createStringDao(config);
+        assertSame(reopened.all(), entries(count));
+        reopened.close();
+        try (Stream<Path> files = Files.list(config.basePath())) {
+            Assertions.assertTrue(files.noneMatch(file -> file.getFileName().toString().startsWith("trash_")));
+        }
+    }
+}
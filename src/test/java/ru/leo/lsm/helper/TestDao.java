@@ -3,12 +3,17 @@ package ru.leo.lsm.helper;
 import java.io.Closeable;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import ru.leo.lsm.BaseEntry;
 import ru.leo.lsm.Config;
 import ru.leo.lsm.Dao;
 import ru.leo.lsm.Entry;
+import ru.leo.lsm.SeekableIterator;
+import ru.leo.lsm.WriteBatch;
 
 class TestDao<D, E extends Entry<D>> implements Dao<String, Entry<String>> {
 
@@ -53,13 +58,92 @@ class TestDao<D, E extends Entry<D>> implements Dao<String, Entry<String>> {
         );
     }
 
+    @Override
+    public Map<String, Entry<String>> getAll(Collection<String> keys) throws IOException {
+        List<D> converted = new ArrayList<>(keys.size());
+        for (String key : keys) {
+            converted.add(factory.fromString(key));
+        }
+
+        // Order of delegate is kept
+        Map<String, Entry<String>> result = new LinkedHashMap<>();
+        for (E entry : delegate.getAll(converted).values()) {
+            String key = factory.toString(entry.key());
+            result.put(key, new BaseEntry<>(key, factory.toString(entry.value())));
+        }
+        return result;
+    }
+
     @Override
     public Iterator<Entry<String>> get(String from, String to) throws IOException {
-        Iterator<E> iterator = delegate.get(
+        return convert(delegate.get(
                 factory.fromString(from),
                 factory.fromString(to)
-        );
+        ));
+    }
+
+    @Override
+    public Iterator<String> keys(String from, String to) throws IOException {
+        Iterator<D> keys = delegate.keys(factory.fromString(from), factory.fromString(to));
         return new Iterator<>() {
+            @Override
+            public boolean hasNext() {
+                return keys.hasNext();
+            }
+
+            @Override
+            public String next() {
+                return factory.toString(keys.next());
+            }
+        };
+    }
+
+    @Override
+    public Iterator<Entry<String>> descending(String from, String to) throws IOException {
+        return convert(delegate.descending(
+                factory.fromString(from),
+                factory.fromString(to)
+        ));
+    }
+
+    @Override
+    public List<Iterator<Entry<String>>> partitions(String from, String to, int count) throws IOException {
+        List<Iterator<Entry<String>>> converted = new ArrayList<>();
+        for (Iterator<E> partition : delegate.partitions(factory.fromString(from), factory.fromString(to), count)) {
+            converted.add(convert(partition));
+        }
+        return converted;
+    }
+
+    @Override
+    public long estimateCount(String from, String to) throws IOException {
+        return delegate.estimateCount(factory.fromString(from), factory.fromString(to));
+    }
+
+    @Override
+    public long estimateBytes(String from, String to) throws IOException {
+        return delegate.estimateBytes(factory.fromString(from), factory.fromString(to));
+    }
+
+    @Override
+    public Iterator<Entry<String>> prefix(String prefix) throws IOException {
+        return convert(delegate.prefix(factory.fromString(prefix)));
+    }
+
+    /**
+     * Converts entries of delegate iterator. Converted iterator is seekable, if delegate iterator is seekable.
+     */
+    private Iterator<Entry<String>> convert(Iterator<E> iterator) {
+        return new SeekableIterator<String, Entry<String>>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public void seek(String key) {
+                if (!(iterator instanceof SeekableIterator<?, ?> seekable)) {
+                    throw new UnsupportedOperationException("Iterator of delegate is not seekable.");
+                }
+                ((SeekableIterator<D, E>) seekable).seek(factory.fromString(key));
+            }
+
             @Override
             public boolean hasNext() {
                 return iterator.hasNext();
@@ -84,6 +168,15 @@ class TestDao<D, E extends Entry<D>> implements Dao<String, Entry<String>> {
         delegate.upsert(factory.fromBaseEntry(e));
     }
 
+    @Override
+    public void write(WriteBatch<String> batch) throws IOException {
+        WriteBatch<D> converted = new WriteBatch<>();
+        for (Entry<String> entry : batch.entries()) {
+            converted.put(factory.fromString(entry.key()), factory.fromString(entry.value()));
+        }
+        delegate.write(converted);
+    }
+
     @Override
     public void flush() throws IOException {
         delegate.flush();
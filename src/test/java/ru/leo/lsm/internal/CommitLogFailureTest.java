@@ -0,0 +1,65 @@
+package ru.leo.lsm.internal;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.leo.lsm.BaseEntry;
+import ru.leo.lsm.Config;
+import ru.leo.lsm.Entry;
+
+/**
+ * Failed write of commit log loses records, so their positions and all next ones never become durable.
+ */
+class CommitLogFailureTest {
+
+    @Test
+    void failedWriteFailsNextAppendsAndSyncs(@TempDir Path dir) throws IOException {
+        Config config = new Config(dir, 1024)
+            .withCommitLog(Config.CommitLogSync.SYNC, Config.DEFAULT_COMMIT_LOG_SYNC_PERIOD_MILLIS);
+        AtomicBoolean fail = new AtomicBoolean();
+        CommitLog log = CommitLog.open(config, segment -> {
+            FileChannel channel = FileChannel.open(segment,
+                StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            if (fail.get()) {
+                // Writes to closed channel fail
+                channel.close();
+            }
+            return channel;
+        });
+
+        long written = log.append(List.of(entry("k1", "v1")), () -> { });
+        log.sync(written);
+        fail.set(true);
+        log.roll();
+
+        long failed = log.append(List.of(entry("k2", "v2")), () -> { });
+        Assertions.assertThrows(IOException.class, () -> log.sync(failed));
+        log.sync(written);
+        Assertions.assertThrows(UncheckedIOException.class, () -> log.append(List.of(entry("k3", "v3")), () -> { }));
+        Assertions.assertThrows(IOException.class, log::close);
+
+        List<Entry<ByteBuffer>> replayed = new ArrayList<>();
+        try (CommitLog reopened = CommitLog.open(config)) {
+            reopened.replay(replayed::add);
+        }
+        Assertions.assertEquals(List.of(entry("k1", "v1")), replayed);
+    }
+
+    private static Entry<ByteBuffer> entry(String key, String value) {
+        return new BaseEntry<>(bytes(key), bytes(value));
+    }
+
+    private static ByteBuffer bytes(String data) {
+        return ByteBuffer.wrap(data.getBytes(StandardCharsets.UTF_8));
+    }
+}
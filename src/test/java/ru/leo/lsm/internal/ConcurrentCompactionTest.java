@@ -0,0 +1,99 @@
+package ru.leo.lsm.internal;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.leo.lsm.BaseEntry;
+import ru.leo.lsm.Config;
+import ru.leo.lsm.Entry;
+import ru.leo.lsm.internal.memtable.MemTable;
+
+/**
+ * Tables are saved, while compaction writes its output, and stay fresher than output.
+ */
+class ConcurrentCompactionTest {
+    private static final int TABLES = 4;
+    private static final int COUNT = 20_000;
+
+    @Test
+    void flushIsNotBlockedByCompaction(@TempDir Path dir) throws Exception {
+        Config config = new Config(dir, 1024 * 1024);
+        // Compaction waits after it has picked tables, until fresh table is saved
+        CountDownLatch compactionPicked = new CountDownLatch(1);
+        CountDownLatch freshSaved = new CountDownLatch(1);
+        SSTables ssTables = SSTables.load(config, () -> {
+            compactionPicked.countDown();
+            try {
+                freshSaved.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        byte[] value = new byte[512];
+        for (int table = 0; table < TABLES; table++) {
+            MemTable memTable = MemTable.create(config);
+            for (int i = 0; i < COUNT; i++) {
+                memTable.upsert(new BaseEntry<>(bytes(key(i)), ByteBuffer.wrap(value)));
+            }
+            ssTables.save(memTable);
+        }
+
+        Thread compaction = new Thread(() -> {
+            try {
+                ssTables.compact();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+        compaction.start();
+        compactionPicked.await();
+
+        // Fresh table overwrites and deletes keys of compacted ones, save is not blocked by compaction
+        MemTable fresh = MemTable.create(config);
+        fresh.upsert(new BaseEntry<>(bytes(key(1)), bytes("fresh")));
+        fresh.upsert(new BaseEntry<>(bytes(key(2)), null));
+        try {
+            Assertions.assertTimeoutPreemptively(Duration.ofSeconds(30), () -> ssTables.save(fresh));
+        } finally {
+            freshSaved.countDown();
+            compaction.join();
+        }
+
+        Assertions.assertEquals(bytes("fresh"), ssTables.findEntry(bytes(key(1))).value());
+        Assertions.assertTrue(ssTables.findEntry(bytes(key(2))).isTombstone());
+        Assertions.assertEquals(ByteBuffer.wrap(value), ssTables.findEntry(bytes(key(3))).value());
+        ssTables.close();
+
+        // Fresh table is kept in level 0 before output of compaction
+        SSTables reloaded = SSTables.load(config);
+        Assertions.assertEquals(bytes("fresh"), reloaded.findEntry(bytes(key(1))).value());
+        Assertions.assertTrue(reloaded.findEntry(bytes(key(2))).isTombstone());
+        Assertions.assertEquals(COUNT - 1, count(reloaded.getMergedEntrys(null, null, List.of())));
+        reloaded.close();
+    }
+
+    private static int count(Iterator<Entry<ByteBuffer>> iterator) {
+        int count = 0;
+        for (; iterator.hasNext(); iterator.next()) {
+            count++;
+        }
+        return count;
+    }
+
+    private static String key(int i) {
+        return String.format("key%08d", i);
+    }
+
+    private static ByteBuffer bytes(String data) {
+        return ByteBuffer.wrap(data.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,72 @@
+package ru.leo.lsm.internal;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.leo.lsm.BaseEntry;
+import ru.leo.lsm.Config;
+import ru.leo.lsm.Entry;
+import ru.leo.lsm.internal.cache.BlockCache;
+
+/**
+ * Tables larger than 2 GB are mapped by segments, here segments are made small to read many of them.
+ */
+class SegmentedSSTableTest {
+    private static final int COUNT = 10_000;
+    private static final long SEGMENT_BYTES = 16 * 1024;
+
+    @Test
+    void blocksAreReadFromSegments(@TempDir Path dir) throws IOException {
+        List<Entry<ByteBuffer>> entrys = new ArrayList<>();
+        for (int i = 0; i < COUNT; i++) {
+            entrys.add(new BaseEntry<>(bytes(key(i)), i % 10 == 0 ? null : bytes("value-of-key-" + i)));
+        }
+        Path index = dir.resolve("index");
+        Path memory = dir.resolve("memory");
+        SSTable.saveSTPart(index, memory, dir.resolve("bloom"), dir.resolve("prefixBloom"), 10, null,
+            COUNT, entrys.iterator());
+        Assertions.assertTrue(Files.size(memory) > 10 * SEGMENT_BYTES);
+
+        BlockCache<DecodedBlock> cache = new BlockCache<>(
+            1024 * 1024, BlockSSTable.BLOCK_SIZE, Config.BlockCacheEviction.LRU, DecodedBlock::byteSize);
+        for (BlockCache<DecodedBlock> blockCache : Arrays.asList(null, cache)) {
+            SSTable table = SSTable.load(index, memory, dir.resolve("bloom"), dir.resolve("prefixBloom"),
+                blockCache, false, Config.ChecksumVerification.ALWAYS, null, SEGMENT_BYTES, 0);
+            Assertions.assertTrue(table.memorySegments().length > 10);
+            Assertions.assertEquals(0, table.scrub());
+
+            for (int i = 0; i < COUNT; i += 7) {
+                Assertions.assertEquals(entrys.get(i), table.get(bytes(key(i))));
+            }
+            assertEntrys(entrys, table.iterator(null, null));
+            assertEntrys(entrys.subList(1_234, 8_765), table.lazyIterator(bytes(key(1_234)), bytes(key(8_765))));
+            assertEntrys(entrys.reversed(), table.descendingIterator(null, null));
+
+            Assertions.assertEquals(Files.size(memory), table.estimateBytes(null, null));
+            Assertions.assertEquals(COUNT, table.estimateCount(null, null));
+        }
+    }
+
+    private static void assertEntrys(List<Entry<ByteBuffer>> expected, Iterator<Entry<ByteBuffer>> iterator) {
+        List<Entry<ByteBuffer>> entrys = new ArrayList<>();
+        iterator.forEachRemaining(entry -> entrys.add(new BaseEntry<>(entry.key(), entry.value())));
+        Assertions.assertEquals(expected, entrys);
+    }
+
+    private static String key(int i) {
+        return String.format("key%08d", i);
+    }
+
+    private static ByteBuffer bytes(String data) {
+        return ByteBuffer.wrap(data.getBytes(StandardCharsets.UTF_8));
+    }
+}
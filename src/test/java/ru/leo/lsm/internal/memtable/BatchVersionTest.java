@@ -0,0 +1,61 @@
+package ru.leo.lsm.internal.memtable;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import ru.leo.lsm.BaseEntry;
+import ru.leo.lsm.Entry;
+
+class BatchVersionTest {
+
+    @Test
+    void versionsNotVisibleForReadersAreCollapsed() {
+        Object stored = "v0";
+        for (long batchN = 1; batchN <= 1_000; batchN++) {
+            stored = new BatchVersion<>("v" + batchN, batchN, BatchVersion.collapse(stored, batchN - 1));
+        }
+        // Readers without iterators see only the last committed batch
+        Assertions.assertEquals(new BatchVersion<>("v1000", 1_000, "v999"), stored);
+
+        // Iterator of batch 500 keeps its version and newer ones
+        stored = "v0";
+        for (long batchN = 1; batchN <= 1_000; batchN++) {
+            stored = new BatchVersion<>("v" + batchN, batchN,
+                BatchVersion.collapse(stored, Math.min(500, batchN - 1)));
+        }
+        Assertions.assertEquals("v500", BatchVersion.resolve(stored, 500));
+        Assertions.assertEquals("v750", BatchVersion.resolve(stored, 750));
+        Assertions.assertEquals("v1000", BatchVersion.resolve(stored, 1_000));
+        Assertions.assertEquals("v1000", BatchVersion.collapse(stored, 1_000));
+    }
+
+    @Test
+    void openIteratorSeesItsBatch() {
+        for (MemTable memTable : List.of(new SkipListMemTable(), new OffHeapMemTable(64 * 1024))) {
+            memTable.upsert(batch(0));
+            Iterator<Entry<ByteBuffer>> iterator = memTable.get(null, null);
+            for (int batchN = 1; batchN <= 1_000; batchN++) {
+                memTable.upsert(batch(batchN));
+            }
+
+            List<Entry<ByteBuffer>> entrys = new ArrayList<>();
+            iterator.forEachRemaining(entry -> entrys.add(new BaseEntry<>(entry.key(), entry.value())));
+            Assertions.assertEquals(batch(0), entrys);
+            Assertions.assertEquals(batch(1_000), List.of(memTable.get(bytes("a")), memTable.get(bytes("b"))));
+        }
+    }
+
+    private static List<Entry<ByteBuffer>> batch(int batchN) {
+        return List.of(
+            new BaseEntry<>(bytes("a"), bytes("a" + batchN)),
+            new BaseEntry<>(bytes("b"), bytes("b" + batchN)));
+    }
+
+    private static ByteBuffer bytes(String data) {
+        return ByteBuffer.wrap(data.getBytes(StandardCharsets.UTF_8));
+    }
+}